@@ -0,0 +1,499 @@
+// Benchmark.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.benchmark;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jugglinglab.core.AnimationPrefs;
+import jugglinglab.core.Animator;
+import jugglinglab.core.Constants;
+import jugglinglab.generator.FilterAutomatonCheck;
+import jugglinglab.generator.GeneratorTarget;
+import jugglinglab.generator.SiteswapGenerator;
+import jugglinglab.jml.*;
+import jugglinglab.notation.Pattern;
+import jugglinglab.renderer.JugglerAllocationCheck;
+import jugglinglab.util.*;
+
+
+// Performance harness for the main stages of Juggling Lab: the siteswap
+// generator, pattern layout, editing, frame rendering, and animated GIF
+// export.
+//
+// This is kept out of the main source tree and isn't included in the jar.
+// Build and run it with `ant benchmark`, passing options through the
+// bench.args property, e.g.
+//
+//     ant benchmark -Dbench.args="-stages layout,render -time 10"
+//
+// Options are:
+//
+//     -stages <list>    comma-separated stages to run (default all):
+//                       gen, layout, edit, render, gif
+//     -warmup <secs>    warmup time per stage (default 3)
+//     -time <secs>      measurement time per stage (default 5)
+//     -patterns <dir>   directory holding the pattern corpus (default patterns)
+//     -out <file>       also append the results as tab-separated lines
+//     -all              include the slow patterns (see below)
+//
+// Before timing the generator we check its include/exclude filter automaton
+// against java.util.regex (see FilterAutomatonCheck), and before timing
+// rendering we check that finding the positions to draw allocates nothing
+// (see JugglerAllocationCheck).
+//
+// The layout, edit, render and GIF stages run over the patterns in common.jml,
+// FunWithJugglingLab.jml and bounce.jml. Patterns whose names start with an
+// asterisk are marked in the pattern list as slow to compile (some take
+// minutes), so by default they're left out. The generator stage runs a fixed
+// set of searches. For each stage we report throughput, latency per
+// operation, and the rate of memory allocation on the benchmark thread.
+// One operation is:
+//
+//     gen       one complete generator search
+//     layout    building one pattern from its description and laying it out
+//     edit      copying a laid-out pattern, moving one event in the copy, and
+//               laying out the copy (as the pattern mutator does)
+//     render    drawing one animation frame
+//     gif       writing one complete animated GIF
+
+public class Benchmark {
+    protected static final String[] corpus_files = {
+        "common.jml", "FunWithJugglingLab.jml", "bounce.jml",
+    };
+
+    protected static final String[] generator_cases = {
+        "5 7 5",
+        "7 9 5",
+        "5 7 6 -x 3 -i 5",
+        "3 5 4 -m 2",
+        "4 6 4 -j 2",
+    };
+
+    protected static final List<String> all_stages = Arrays.asList("gen", "layout", "edit", "render", "gif");
+
+    protected List<String> stages = all_stages;
+    protected double warmup_secs = 3.0;
+    protected double time_secs = 5.0;
+    protected Path pattern_dir = Paths.get("patterns");
+    protected String outfile = null;
+    protected boolean include_slow = false;
+
+    protected ArrayList<CorpusEntry> corpus = new ArrayList<CorpusEntry>();
+
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Benchmark b = new Benchmark();
+
+        try {
+            b.parse_args(args);
+            b.load_corpus();
+            b.run();
+        } catch (JuggleExceptionUser jeu) {
+            System.out.println("Error: " + jeu.getMessage());
+            System.exit(1);
+        } catch (JuggleException je) {
+            System.out.println("Internal Error: " + je.getMessage());
+            System.exit(1);
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
+    protected void parse_args(String[] args) throws JuggleExceptionUser {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-stages")) {
+                    stages = Arrays.asList(args[++i].toLowerCase().split(","));
+                    for (String s : stages) {
+                        if (!all_stages.contains(s))
+                            throw new JuggleExceptionUser("unknown stage '" + s + "'");
+                    }
+                } else if (args[i].equals("-warmup"))
+                    warmup_secs = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-time"))
+                    time_secs = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-patterns"))
+                    pattern_dir = Paths.get(args[++i]);
+                else if (args[i].equals("-out"))
+                    outfile = args[++i];
+                else if (args[i].equals("-all"))
+                    include_slow = true;
+                else
+                    throw new JuggleExceptionUser("unrecognized option '" + args[i] + "'");
+            }
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            throw new JuggleExceptionUser("missing value after '" + args[args.length - 1] + "'");
+        } catch (NumberFormatException nfe) {
+            throw new JuggleExceptionUser("bad number format in options");
+        }
+    }
+
+    // Read the pattern lists. Entries that can't be animated are skipped.
+    protected void load_corpus() throws JuggleExceptionUser, IOException {
+        for (String name : corpus_files) {
+            Path path = pattern_dir.resolve(name);
+            JMLParser parser = new JMLParser();
+
+            try (Reader in = new FileReader(path.toFile())) {
+                parser.parse(in);
+            } catch (org.xml.sax.SAXException se) {
+                throw new JuggleExceptionUser("formatting error in " + path);
+            }
+            if (parser.getFileType() != JMLParser.JML_LIST)
+                throw new JuggleExceptionUser(path + " is not a pattern list");
+
+            JMLNode root = parser.getTree();
+            String version = root.getAttributes().getAttribute("version");
+            if (version == null)
+                version = "1.0";
+            JMLNode listnode = root.getChildNode(0);
+
+            for (int i = 0; i < listnode.getNumberOfChildren(); i++) {
+                JMLNode line = listnode.getChildNode(i);
+                if (!line.getNodeType().equalsIgnoreCase("line"))
+                    continue;
+
+                JMLAttributes attr = line.getAttributes();
+                CorpusEntry ce = new CorpusEntry();
+                ce.display = attr.getAttribute("display");
+                ce.notation = attr.getAttribute("notation");
+                ce.animprefs = attr.getAttribute("animprefs");
+                ce.version = version;
+
+                if (ce.notation == null)
+                    continue;       // a heading
+                if (!include_slow && ce.display != null && ce.display.startsWith("*"))
+                    continue;
+                if (ce.notation.equalsIgnoreCase("jml")) {
+                    for (int j = 0; j < line.getNumberOfChildren(); j++) {
+                        if (line.getChildNode(j).getNodeType().equalsIgnoreCase("pattern"))
+                            ce.pattern = line.getChildNode(j);
+                    }
+                } else
+                    ce.anim = line.getNodeValue().trim();
+
+                try {
+                    ce.makePattern();
+                    corpus.add(ce);
+                } catch (JuggleException je) {
+                    System.out.println("Skipping '" + ce.display + "': " + je.getMessage());
+                }
+            }
+        }
+
+        System.out.println("Juggling Lab " + Constants.version + ", " + corpus.size() +
+                           " patterns in corpus, " + System.getProperty("java.vm.name") +
+                           " " + System.getProperty("java.version"));
+    }
+
+    protected void run() throws JuggleException, IOException {
+        ArrayList<Result> results = new ArrayList<Result>();
+
+        for (String s : all_stages) {
+            if (!stages.contains(s))
+                continue;
+
+            Stage stage = null;
+            if (s.equals("gen"))
+                stage = new GeneratorStage();
+            else if (s.equals("layout"))
+                stage = new LayoutStage();
+            else if (s.equals("edit"))
+                stage = new EditStage();
+            else if (s.equals("render"))
+                stage = new RenderStage();
+            else if (s.equals("gif"))
+                stage = new GIFStage();
+
+            results.add(measure(s, stage));
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-8s %8s %10s %10s %10s %10s %12s %12s",
+                "stage", "ops", "ops/s", "mean ms", "p50 ms", "p99 ms", "alloc MB/s", "alloc KB/op"));
+        for (Result r : results)
+            System.out.println(r.toString());
+
+        if (outfile != null) {
+            try (PrintStream ps = new PrintStream(new FileOutputStream(outfile, true))) {
+                for (Result r : results)
+                    ps.println(Constants.version + "\t" + r.toTabbedString());
+            }
+        }
+    }
+
+    // Run a stage for the warmup period and then the measurement period,
+    // timing each operation.
+    protected Result measure(String name, Stage stage) throws JuggleException, IOException {
+        System.out.print("Running " + name + "...");
+        System.out.flush();
+
+        long end = System.nanoTime() + (long)(1e9 * warmup_secs);
+        int op = 0;
+        while (System.nanoTime() < end)
+            stage.run(op++);
+
+        long[] times = new long[1024];
+        int ops = 0;
+        long alloc_start = allocated_bytes();
+        long start = System.nanoTime();
+        end = start + (long)(1e9 * time_secs);
+        long now = start;
+
+        do {
+            long t = now;
+            stage.run(op++);
+            now = System.nanoTime();
+
+            if (ops == times.length)
+                times = Arrays.copyOf(times, 2 * times.length);
+            times[ops++] = now - t;
+        } while (now < end);
+
+        long alloc = allocated_bytes() - alloc_start;
+        System.out.println(" done");
+
+        Result r = new Result();
+        r.stage = name;
+        r.ops = ops;
+        r.elapsed_nanos = now - start;
+        r.alloc_bytes = (alloc_start < 0 ? -1 : alloc);
+
+        Arrays.sort(times, 0, ops);
+        r.p50_nanos = times[percentile_index(ops, 0.50)];
+        r.p99_nanos = times[percentile_index(ops, 0.99)];
+        return r;
+    }
+
+    protected static int percentile_index(int n, double p) {
+        return Math.max(0, (int)Math.ceil(p * n) - 1);
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM doesn't
+    // keep track.
+    protected static long allocated_bytes() {
+        java.lang.management.ThreadMXBean tmb = ManagementFactory.getThreadMXBean();
+        if (tmb instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean stmb = (com.sun.management.ThreadMXBean)tmb;
+            if (stmb.isThreadAllocatedMemorySupported() && stmb.isThreadAllocatedMemoryEnabled())
+                return stmb.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+
+    // One pattern from the corpus
+    protected static class CorpusEntry {
+        String display, notation, animprefs, version;
+        String anim;            // pattern in a notation other than JML
+        JMLNode pattern;        // pattern in JML
+
+        JMLPattern makePattern() throws JuggleExceptionUser, JuggleExceptionInternal {
+            JMLPattern pat;
+            if (pattern != null)
+                pat = new JMLPattern(pattern, version);
+            else
+                pat = Pattern.newPattern(notation).fromString(anim).asJMLPattern();
+            pat.layoutPattern();
+            return pat;
+        }
+
+        AnimationPrefs makePrefs() throws JuggleExceptionUser {
+            AnimationPrefs ap = new AnimationPrefs();
+            if (animprefs != null) {
+                ParameterList pl = new ParameterList(animprefs);
+                ap.fromParameters(pl);
+            }
+            return ap;
+        }
+    }
+
+    protected interface Stage {
+        // Do operation number `op`. Stages cycle through their inputs.
+        public void run(int op) throws JuggleException, IOException;
+    }
+
+    protected class GeneratorStage implements Stage {
+        GeneratorTarget sink = new GeneratorTarget() {
+            @Override
+            public void writePattern(String display, String notation, String anim) {}
+
+            @Override
+            public void setStatus(String display) {}
+        };
+
+        // make sure the filters we're timing give the right answers
+        GeneratorStage() throws JuggleException {
+            FilterAutomatonCheck.run();
+        }
+
+        @Override
+        public void run(int op) throws JuggleException {
+            String[] args = generator_cases[op % generator_cases.length].split(" ");
+            SiteswapGenerator sg = new SiteswapGenerator();
+            sg.initGenerator(args);
+            sg.runGenerator(sink, -1, -1.0);
+        }
+    }
+
+    protected class LayoutStage implements Stage {
+        @Override
+        public void run(int op) throws JuggleException {
+            corpus.get(op % corpus.size()).makePattern();
+        }
+    }
+
+    protected class EditStage implements Stage {
+        JMLPattern[] patterns;
+
+        EditStage() throws JuggleException {
+            patterns = new JMLPattern[corpus.size()];
+            for (int i = 0; i < corpus.size(); i++)
+                patterns[i] = corpus.get(i).makePattern();
+        }
+
+        @Override
+        public void run(int op) throws JuggleException {
+            JMLPattern pat = (JMLPattern)patterns[op % patterns.length].clone();
+
+            JMLEvent ev = pat.getEventList();
+            while (!ev.isMaster())
+                ev = ev.getNext();
+            Coordinate c = ev.getLocalCoordinate();
+            c.z += 1.0;
+            ev.setLocalCoordinate(c);
+            pat.layoutPattern();
+        }
+    }
+
+    protected class RenderStage implements Stage {
+        Animator[] animators;
+        // every frame of every pattern: the animator to draw it and the time
+        int[] frame_animator;
+        double[] frame_time;
+        BufferedImage image;
+        Graphics2D g;
+
+        RenderStage() throws JuggleException {
+            animators = new Animator[corpus.size()];
+            ArrayList<JMLPattern> patterns = new ArrayList<JMLPattern>();
+            double[] start = new double[corpus.size()];
+            int total = 0;
+
+            for (int i = 0; i < corpus.size(); i++) {
+                CorpusEntry ce = corpus.get(i);
+                JMLPattern pat = ce.makePattern();
+                AnimationPrefs ap = ce.makePrefs();
+                ap.stereo = false;      // keep the image size the same
+
+                animators[i] = new Animator();
+                animators[i].setDimension(new Dimension(AnimationPrefs.width_def,
+                                                        AnimationPrefs.height_def));
+                animators[i].restartAnimator(pat, ap);
+                patterns.add(pat);
+                start[i] = pat.getLoopStartTime();
+                total += animators[i].getNumFrames();
+            }
+
+            frame_animator = new int[total];
+            frame_time = new double[total];
+            int f = 0;
+            for (int i = 0; i < animators.length; i++) {
+                // step through the frames the way the animator does, so that
+                // the times match the baked ones exactly
+                double time = start[i];
+                for (int j = 0; j < animators[i].getNumFrames(); j++) {
+                    frame_animator[f] = i;
+                    frame_time[f++] = time;
+                    time += animators[i].getSimIntervalSecs();
+                }
+            }
+
+            // make sure finding the positions to draw allocates nothing
+            JugglerAllocationCheck.run(patterns);
+
+            image = new BufferedImage(AnimationPrefs.width_def, AnimationPrefs.height_def,
+                                      BufferedImage.TYPE_INT_RGB);
+            g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                               RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+
+        @Override
+        public void run(int op) throws JuggleException {
+            int f = op % frame_time.length;
+            animators[frame_animator[f]].drawFrame(frame_time[f], g, false);
+        }
+    }
+
+    protected class GIFStage implements Stage {
+        @Override
+        public void run(int op) throws JuggleException, IOException {
+            CorpusEntry ce = corpus.get(op % corpus.size());
+            JMLPattern pat = ce.makePattern();
+            AnimationPrefs ap = ce.makePrefs();
+            ap.fps = 33.3;      // as for the togif command
+
+            Animator anim = new Animator();
+            anim.setDimension(new Dimension(ap.width, ap.height));
+            anim.restartAnimator(pat, ap);
+            anim.writeGIF(new CountingOutputStream(), null);
+        }
+    }
+
+    // Discards the output, counting the bytes written.
+    protected static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b)    { count++; }
+
+        @Override
+        public void write(byte[] b, int off, int len)  { count += len; }
+    }
+
+    protected static class Result {
+        String stage;
+        int ops;
+        long elapsed_nanos, p50_nanos, p99_nanos;
+        long alloc_bytes;           // -1 if unknown
+
+        double opsPerSec()      { return ops / (1e-9 * elapsed_nanos); }
+        double meanMillis()     { return 1e-6 * elapsed_nanos / ops; }
+
+        double allocMBPerSec() {
+            return (alloc_bytes < 0 ? Double.NaN : alloc_bytes / 1048576.0 / (1e-9 * elapsed_nanos));
+        }
+
+        double allocKBPerOp() {
+            return (alloc_bytes < 0 ? Double.NaN : alloc_bytes / 1024.0 / ops);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %8d %10.2f %10.3f %10.3f %10.3f %12.1f %12.1f",
+                    stage, ops, opsPerSec(), meanMillis(), 1e-6 * p50_nanos,
+                    1e-6 * p99_nanos, allocMBPerSec(), allocKBPerOp());
+        }
+
+        public String toTabbedString() {
+            return String.format("%s\t%d\t%.2f\t%.3f\t%.3f\t%.3f\t%.1f\t%.1f",
+                    stage, ops, opsPerSec(), meanMillis(), 1e-6 * p50_nanos,
+                    1e-6 * p99_nanos, allocMBPerSec(), allocKBPerOp());
+        }
+    }
+}
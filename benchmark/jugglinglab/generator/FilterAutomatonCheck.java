@@ -0,0 +1,104 @@
+// FilterAutomatonCheck.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import jugglinglab.util.JuggleExceptionInternal;
+
+
+// Checks FilterAutomaton against java.util.regex over a fixed set of
+// expressions and strings. Several of the expressions are long enough that
+// the NFA outgrows its initial state arrays while it's being built.
+//
+// This lives in the benchmark tree so it can reach the package-private
+// FilterAutomaton; the benchmark runs it before timing the generator.
+
+public class FilterAutomatonCheck {
+    protected static final String[] regexes = {
+        ".*3.*",
+        "(35|4)*",
+        "(3|45)+5",
+        "[345]{2,4}3?",
+        ".*(33|5).*?",
+        "^3*$",
+    };
+
+    protected static final int[] long_lengths = { 20, 54, 57, 63, 64, 65, 127, 130 };
+
+    protected static final int num_strings = 2000;
+
+    public static void run() throws JuggleExceptionInternal {
+        ArrayList<String> res = new ArrayList<String>();
+        for (String re : regexes)
+            res.add(re);
+        for (int len : long_lengths) {
+            String threes = String.join("", Collections.nCopies(len, "3"));
+            res.add(".*" + threes + ".*");
+            res.add("(" + threes + "5)*");
+            res.add("(4|" + threes + ")+5");
+        }
+
+        ArrayList<String> strings = new ArrayList<String>();
+        Random rand = new Random(1);
+        for (int i = 0; i < num_strings; i++) {
+            int len = rand.nextInt(140);
+            StringBuilder sb = new StringBuilder();
+            // mostly threes, so the long expressions get a chance to match
+            for (int j = 0; j < len; j++) {
+                int r = rand.nextInt(20);
+                sb.append(r < 17 ? '3' : (r < 19 ? '5' : '4'));
+            }
+            strings.add(sb.toString());
+        }
+        for (int len : long_lengths) {
+            String threes = String.join("", Collections.nCopies(len, "3"));
+            strings.add(threes);
+            strings.add(threes + "5" + threes + "5");
+            strings.add("4" + threes + "45");
+        }
+
+        for (String re : res) {
+            List<String> one = Collections.singletonList(re);
+            List<String> none = Collections.emptyList();
+            // pair the exclude with an include, as `-x <term> -i 5` does
+            FilterAutomaton exclude = FilterAutomaton.compile(one, Collections.singletonList(".*5.*"));
+            FilterAutomaton include = FilterAutomaton.compile(none, one);
+            if (exclude == null || include == null)
+                throw new JuggleExceptionInternal("FilterAutomaton can't compile '" + re + "'");
+            Pattern pat = Pattern.compile(re);
+            Pattern five = Pattern.compile(".*5.*");
+
+            for (String s : strings) {
+                int es = exclude.start();
+                int is = include.start();
+                for (int i = 0; i < s.length(); i++) {
+                    es = exclude.step(es, s.charAt(i));
+                    is = include.step(is, s.charAt(i));
+                }
+
+                boolean expected = pat.matcher(s).matches();
+                if (exclude.isExcluded(es) != expected || include.isIncluded(is) != expected ||
+                            exclude.isIncluded(es) != five.matcher(s).matches())
+                    throw new JuggleExceptionInternal("FilterAutomaton disagrees with " +
+                                "java.util.regex for '" + re + "' on '" + s + "'");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            run();
+            System.out.println("FilterAutomaton agrees with java.util.regex");
+        } catch (JuggleExceptionInternal jei) {
+            System.out.println("Error: " + jei.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+// JugglerAllocationCheck.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.renderer;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import jugglinglab.jml.BakedFrames;
+import jugglinglab.jml.JMLPattern;
+import jugglinglab.jml.JugglerTransform;
+import jugglinglab.jml.PatternSnapshot;
+import jugglinglab.util.Coordinate;
+import jugglinglab.util.JuggleExceptionInternal;
+
+
+// Checks that finding prop and juggler positions for a frame allocates
+// nothing once the working space is set up, both at the pattern's baked frame
+// times and halfway between them. These are the calls Renderer2D makes for
+// each frame, without the drawing.
+//
+// The patterns should have had their frames baked (the animator does this);
+// the benchmark runs this over its corpus before timing the render stage.
+
+public class JugglerAllocationCheck {
+    // passes over all the frames before and while measuring
+    protected static final int warmup_passes = 30;
+    protected static final int measure_passes = 5;
+
+    public static void run(List<JMLPattern> patterns) throws JuggleExceptionInternal {
+        if (allocated_bytes() < 0)
+            return;     // JVM can't tell us
+
+        Work[] work = new Work[patterns.size()];
+        for (int i = 0; i < work.length; i++)
+            work[i] = new Work(patterns.get(i));
+
+        for (int pass = 0; pass < warmup_passes; pass++) {
+            for (Work w : work)
+                w.run();
+        }
+
+        // asking for the count allocates a little itself
+        long start = allocated_bytes();
+        long overhead = allocated_bytes() - start;
+
+        long frames = 0;
+        start = allocated_bytes();
+        for (int pass = 0; pass < measure_passes; pass++) {
+            for (Work w : work)
+                frames += w.run();
+        }
+        long alloc = allocated_bytes() - start - overhead;
+
+        if (alloc > 0)
+            throw new JuggleExceptionInternal("finding positions allocated " + alloc +
+                        " bytes over " + frames + " frames");
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM doesn't
+    // keep track.
+    protected static long allocated_bytes() {
+        java.lang.management.ThreadMXBean tmb = ManagementFactory.getThreadMXBean();
+        if (tmb instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean stmb = (com.sun.management.ThreadMXBean)tmb;
+            if (stmb.isThreadAllocatedMemorySupported() && stmb.isThreadAllocatedMemoryEnabled())
+                return stmb.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+
+    // One pattern, with the working space a renderer keeps for it
+    protected static class Work {
+        PatternSnapshot snap;
+        BakedFrames bf;
+        double[] time;          // baked frame times, or evenly spaced if none
+        double halfstep;
+        Coordinate tempc = new Coordinate();
+        JugglerTransform tempjt = new JugglerTransform();
+        JLVector[][] jugglervec;
+
+        Work(JMLPattern pat) {
+            snap = pat.getSnapshot();
+            bf = pat.getBakedFrames(snap);
+            jugglervec = new JLVector[snap.getNumberOfJugglers()][14];
+
+            double loop = snap.getLoopEndTime() - snap.getLoopStartTime();
+            int frames = 60;
+            double t = snap.getLoopStartTime();
+            double step = loop / frames;
+            if (bf != null) {
+                // find the baked times the way the animator steps through them
+                frames = bf.getNumberOfFrames();
+                step = bf.getInterval();
+                t = bf.getStart();
+            }
+            time = new double[frames];
+            for (int i = 0; i < frames; i++) {
+                time[i] = t;
+                t += step;
+            }
+            halfstep = 0.5 * step;
+        }
+
+        // Returns the number of frames done.
+        int run() throws JuggleExceptionInternal {
+            for (int i = 0; i < time.length; i++) {
+                int frame = (bf == null ? -1 : bf.getFrame(time[i]));
+                frame(time[i], frame);
+                frame(time[i] + halfstep, -1);
+            }
+            return 2 * time.length;
+        }
+
+        void frame(double t, int frame) throws JuggleExceptionInternal {
+            for (int path = 1; path <= snap.getNumberOfPaths(); path++) {
+                if (frame >= 0)
+                    bf.getPathCoordinate(frame, path, tempc);
+                else
+                    snap.getPathCoordinate(path, t, tempc);
+            }
+            Juggler.findJugglerCoordinates(snap, t, bf, frame, jugglervec, tempc, tempjt);
+        }
+    }
+}
@@ -114,7 +114,7 @@ public class AnimationEditPanel extends AnimationPanel {
                     xdelta = ydelta = 0;
 
                     EditLadderDiagram eld = (EditLadderDiagram)ladder;
-                    eld.activeEventMoved();
+                    eld.activeEventRepositioned();
                 }
                 AnimationEditPanel.this.cameradrag = false;
                 dragging = false;
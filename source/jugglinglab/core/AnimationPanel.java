@@ -341,43 +341,35 @@ public class AnimationPanel extends JPanel implements Runnable {
                     setTime(getTime() + anim.sim_interval_secs);
                     newtime = getTime();
 
-                    if (jc.catchSound && catchclip != null) {
-                        // use synchronized here to prevent editing actions in
-                        // EditLadderDiagram from creating data consistency problems
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathCatchVolume(path, oldtime, newtime) > 0.0) {
-                                    // do audio playback on the EDT -- not strictly
-                                    // necessary but it seems to work better on Linux
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (catchclip.isActive())
-                                                catchclip.stop();
-                                            catchclip.setFramePosition(0);
-                                            catchclip.start();
-                                        }
-                                    });
-                                }
+                    // the pattern's layout snapshot isn't changed by editing
+                    // actions in EditLadderDiagram, so no locking is needed
+                    PatternSnapshot snap = anim.pat.getSnapshot();
+
+                    if (jc.catchSound && catchclip != null &&
+                                snap.getNumberOfCatches(oldtime, newtime) > 0) {
+                        // do audio playback on the EDT -- not strictly
+                        // necessary but it seems to work better on Linux
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (catchclip.isActive())
+                                    catchclip.stop();
+                                catchclip.setFramePosition(0);
+                                catchclip.start();
                             }
-                        }
+                        });
                     }
-                    if (jc.bounceSound && bounceclip != null) {
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathBounceVolume(path, oldtime, newtime) > 0.0) {
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (bounceclip.isActive())
-                                                bounceclip.stop();
-                                            bounceclip.setFramePosition(0);
-                                            bounceclip.start();
-                                        }
-                                    });
-                                }
+                    if (jc.bounceSound && bounceclip != null &&
+                                snap.getNumberOfBounces(oldtime, newtime) > 0) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (bounceclip.isActive())
+                                    bounceclip.stop();
+                                bounceclip.setFramePosition(0);
+                                bounceclip.start();
                             }
-                        }
+                        });
                     }
                 }
                 anim.advanceProps();
@@ -146,13 +146,19 @@ public class Animator {
 
     public void drawFrame(double sim_time, Graphics g, boolean draw_axes)
                         throws JuggleExceptionInternal {
+        drawFrame(sim_time, pat.getSnapshot(), g, draw_axes);
+    }
+
+    // Version that draws from a given snapshot of the pattern
+    public void drawFrame(double sim_time, PatternSnapshot snap, Graphics g, boolean draw_axes)
+                        throws JuggleExceptionInternal {
         if (this.jc.stereo) {
-            this.ren1.drawFrame(sim_time, this.animpropnum, this.jc.hideJugglers,
+            this.ren1.drawFrame(sim_time, snap, this.animpropnum, this.jc.hideJugglers,
                                 g.create(0, 0, this.dim.width/2, this.dim.height));
-            this.ren2.drawFrame(sim_time, this.animpropnum, this.jc.hideJugglers,
+            this.ren2.drawFrame(sim_time, snap, this.animpropnum, this.jc.hideJugglers,
                                 g.create(this.dim.width/2, 0, this.dim.width/2, this.dim.height));
         } else {
-            this.ren1.drawFrame(sim_time, this.animpropnum, this.jc.hideJugglers, g);
+            this.ren1.drawFrame(sim_time, snap, this.animpropnum, this.jc.hideJugglers, g);
         }
 
         if (draw_axes) {
@@ -246,6 +252,10 @@ public class Animator {
         this.sim_interval_secs = (pat.getLoopEndTime() - pat.getLoopStartTime()) / num_frames;
         this.real_interval_millis = (long)(1000.0 * sim_interval_secs * jc.slowdown);
 
+        // the same frames are drawn on each pass through the pattern, so have
+        // the pattern keep tables of the positions at those times
+        pat.bake(pat.getLoopStartTime(), sim_interval_secs, num_frames);
+
         this.animpropnum = new int[pat.getNumberOfPaths()];
         for (int i = 0; i < pat.getNumberOfPaths(); i++)
             this.animpropnum[i] = pat.getPropAssignment(i + 1);
@@ -343,6 +353,8 @@ public class Animator {
     }
 
     public int[] getAnimPropNum()               { return animpropnum; }
+    public int getNumFrames()                   { return num_frames; }
+    public double getSimIntervalSecs()          { return sim_interval_secs; }
     public Color getBackground()                { return ren1.getBackground(); }
     public AnimationPrefs getAnimationPrefs()   { return jc; }
 
@@ -380,11 +392,15 @@ public class Animator {
         ImageWriteParam iwp = iw.getDefaultWriteParam();
         IIOMetadata metadata = null;
 
+        // draw every frame from the same layout, even if the pattern is
+        // edited while we're writing
+        PatternSnapshot snap = pat.getSnapshot();
+
         for (int i = 0; i < pat.getPeriod(); i++)  {
-            double time = pat.getLoopStartTime();
+            double time = snap.getLoopStartTime();
 
             for (int j = 0; j < this.num_frames; j++) {
-                this.drawFrame(time, g, false);
+                this.drawFrame(time, snap, g, false);
 
                 // after the second frame all subsequent frames have identical metadata
                 if (framecount < 2) {
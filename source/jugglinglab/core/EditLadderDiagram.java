@@ -1521,12 +1521,33 @@ public class EditLadderDiagram extends LadderDiagram implements ActionListener {
         animator.activateEvent(active_eventitem.event);
     }
 
+    // The active event was moved in space but not in time (dragged in the
+    // animation window). The event list is unchanged, so only the paths near
+    // the event are recalculated and the ladder diagram is left alone.
+    public void activeEventRepositioned() {
+        if (active_eventitem == null || animator == null)
+            return;
+        JMLEvent ev = active_eventitem.event;
+
+        layoutPattern(ev.isMaster() ? ev : ev.getMaster());
+        animator.activateEvent(ev);
+    }
+
     protected void layoutPattern() {
+        layoutPattern(null);
+    }
+
+    // Redo the pattern layout; if `moved` is not null then it is the only
+    // master event that has changed, and only in position.
+    protected void layoutPattern(JMLEvent moved) {
         try {
             // use synchronized here to avoid data consistency problems with animation
             // thread in AnimationPanel's run() method
             synchronized (pat) {
-                pat.layoutPattern();
+                if (moved == null)
+                    pat.layoutPattern();
+                else
+                    pat.layoutEventPosition(moved);
             }
             if (animator != null) {
                 animator.anim.initAnimator();
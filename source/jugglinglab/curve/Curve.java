@@ -16,6 +16,9 @@ public abstract class Curve {
     protected double[]      times;
     protected Coordinate    start_velocity, end_velocity;
 
+    // segment found by the last call to findSegment(); see below
+    protected int           segmenthint;
+
     public abstract void initCurve(String st) throws JuggleExceptionUser;
 
     public void setCurve(Coordinate[] positions, double[] times, Coordinate start_velocity,
@@ -45,6 +48,60 @@ public abstract class Curve {
 
     public abstract void getCoordinate(double time, Coordinate newPosition);
 
+    // Returns the segment containing `time`, for a time within the curve:
+    // the first segment i with time <= times[i+1].
+    //
+    // Animation asks for nearly the same time over and over, so we check the
+    // segment found last time, and the one after it, before doing a binary
+    // search. The hint is only ever a guess that gets checked, so it doesn't
+    // matter if another thread changes it in the meantime; curves can be
+    // shared between threads through a PatternSnapshot.
+    protected int findSegment(double time) {
+        int n = numpoints - 1;
+        int i = segmenthint;
+
+        if (i < 0 || i >= n || (i > 0 && time <= times[i])) {
+            i = -1;
+        } else if (i < n - 1 && time > times[i+1]) {
+            i++;
+            if (i < n - 1 && time > times[i+1])
+                i = -1;
+        }
+
+        if (i < 0) {
+            int lo = 0;
+            int hi = n - 1;     // the last segment takes anything left over
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time <= times[mid+1])
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            i = lo;
+        }
+
+        segmenthint = i;
+        return i;
+    }
+
+    // Evaluates the curve at t[from] through t[to-1], which must be in
+    // increasing order, putting the results into x, y and z at the same
+    // indices. As with getCoordinate(), entries for times outside the curve
+    // are left unchanged. Subclasses override this to find each segment once
+    // rather than once per time.
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        Coordinate loc = new Coordinate();
+        for (int k = from; k < to; k++) {
+            loc.setCoordinate(x[k], y[k], z[k]);
+            getCoordinate(t[k], loc);
+            x[k] = loc.x;
+            y[k] = loc.y;
+            z[k] = loc.z;
+        }
+    }
+
         // for screen layout purposes
     public Coordinate getMax()  { return getMax2(times[0], times[numpoints-1]); }
     public Coordinate getMin()  { return getMin2(times[0], times[numpoints-1]); }
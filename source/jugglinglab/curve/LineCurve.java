@@ -49,12 +49,7 @@ public class LineCurve extends Curve {
         if (time < times[0] || time > times[n])
             return;
 
-        int i;
-        for (i = 0; i < n; i++)
-            if (time <= times[i+1])
-                break;
-        if (i == n)
-            i = n - 1;
+        int i = findSegment(time);
 
         time -= times[i];
         newPosition.setCoordinate(
@@ -63,6 +58,33 @@ public class LineCurve extends Curve {
                                   a[i][2] + time * b[i][2] );
     }
 
+    @Override
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        int k = from;
+        while (k < to && t[k] < times[0])
+            k++;
+
+        // segment i takes the times up to and including times[i+1]
+        for (int i = 0; i < n && k < to; i++) {
+            int end = k;
+            while (end < to && t[end] <= times[i+1])
+                end++;
+
+            double t0 = times[i];
+            double a0 = a[i][0], b0 = b[i][0];
+            double a1 = a[i][1], b1 = b[i][1];
+            double a2 = a[i][2], b2 = b[i][2];
+
+            for (; k < end; k++) {
+                double time = t[k] - t0;
+                x[k] = a0 + time * b0;
+                y[k] = a1 + time * b1;
+                z[k] = a2 + time * b2;
+            }
+        }
+    }
+
     @Override
     protected Coordinate getMax2(double begin, double end) {
         if (end < times[0] || begin > times[n])
@@ -9,8 +9,11 @@ import jugglinglab.util.*;
 
 public class SplineCurve extends Curve {
     protected int           n;              // number of spline segments
-    protected double[][]    a, b, c, d;     // spline coefficients
-    protected double[]      durations;      // durations of segments
+    protected double[]      coef;           // spline coefficients, see below
+
+    // The coefficients for segment i, coordinate index (0, 1, 2 for x, y, z)
+    // start at coef[12*i + 4*index] and are in the order a, b, c, d, so the
+    // coordinate is a + t*(b + t*(c + t*d)) at time t into the segment.
 
     @Override
     public void initCurve(String st) {}
@@ -32,21 +35,26 @@ public class SplineCurve extends Curve {
         if (n < 1)
             throw new JuggleExceptionInternal("splineCurve error 1");
 
-        this.a = new double[n][3];
-        this.b = new double[n][3];
-        this.c = new double[n][3];
-        this.d = new double[n][3];
-        this.durations = new double[n];
+        Workspace ws = workspace.get();
+        ws.setSize(n);
+
+        this.coef = new double[12*n];
+        double[] durations = ws.durations;
         for (i = 0; i < n; i++) {
             durations[i] = times[i+1] - times[i];
             if (durations[i] < 0.0)
                 throw new JuggleExceptionInternal("splineCurve error 2");
         }
 
-        double[] x = new double[n+1];
-        double[] v = new double[n+1];
+        double[] x = ws.x;
+        double[] v = ws.v;
         double t;
 
+        // with a single segment and unknown edge velocities, the solver
+        // leaves the velocities at zero
+        for (j = 0; j < (n+1); j++)
+            v[j] = 0.0;
+
         for (i = 0; i < 3; i++) {
             for (j = 0; j < (n+1); j++)
                 x[j] = positions[j].getIndex(i);
@@ -55,25 +63,56 @@ public class SplineCurve extends Curve {
                 v[0] = start_velocity.getIndex(i);
                 v[n] = end_velocity.getIndex(i);
                 // find velocities by minimizing rms acceleration
-                findvels_edges_known(v, x, durations, n, jugglinglab.core.Constants.SPLINE_LAYOUT_METHOD);
+                findvels_edges_known(v, x, durations, n, jugglinglab.core.Constants.SPLINE_LAYOUT_METHOD, ws);
             } else {
-                findvels_edges_unknown(v, x, durations, n, jugglinglab.core.Constants.SPLINE_LAYOUT_METHOD);
+                findvels_edges_unknown(v, x, durations, n, jugglinglab.core.Constants.SPLINE_LAYOUT_METHOD, ws);
             }
 
             //System.out.println("index = "+i+", v[1] = "+v[1]+"\n");
 
             // now that we have velocities, solve for spline coefficients
             for (j = 0; j < n; j++) {
-                a[j][i] = x[j];
-                b[j][i] = v[j];
+                int k = 12*j + 4*i;
+                coef[k] = x[j];
+                coef[k+1] = v[j];
                 t = durations[j];
-                c[j][i] = (3.0*(x[j+1]-x[j])-(v[j+1]+2.0*v[j])*t)/(t*t);
-                d[j][i] = (-2.0*(x[j+1]-x[j])+(v[j+1]+v[j])*t)/(t*t*t);
-                //System.out.println("a="+a[j][i]+", b="+b[j][i]+", c="+c[j][i]+", d="+d[j][i]+"\n");
+                coef[k+2] = (3.0*(x[j+1]-x[j])-(v[j+1]+2.0*v[j])*t)/(t*t);
+                coef[k+3] = (-2.0*(x[j+1]-x[j])+(v[j+1]+v[j])*t)/(t*t*t);
             }
         }
     }
 
+    // Working arrays for calcCurve() and the solvers below. Each thread keeps
+    // one set, which grows to fit the largest curve it has solved, so laying
+    // out a pattern doesn't allocate new arrays for every curve.
+    protected static class Workspace {
+        double[] durations, x, v;
+        double[] Adiag, Aoffd, b, vtemp, z1, z2, gam;
+
+        // make room for a curve with n segments
+        void setSize(int n) {
+            if (durations != null && durations.length >= n)
+                return;
+            durations = new double[n];
+            x = new double[n+1];
+            v = new double[n+1];
+            Adiag = new double[n];
+            Aoffd = new double[n];
+            b = new double[n];
+            vtemp = new double[n];
+            z1 = new double[n];
+            z2 = new double[n];
+            gam = new double[n];
+        }
+    }
+
+    protected static final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
 
     // These are the three minimization techniques to assign velocities:
     //    "rmsaccel" minimizes the rms acceleration of the hand
@@ -96,12 +135,13 @@ public class SplineCurve extends Curve {
     // in tridiagonal form, which is solved efficiently in O(N) time.  A is
     // also a symmetric matrix, so the sub- and super-diagonals are equal.
 
-    static protected void findvels_edges_known(double[] v, double[] x, double[] t, int n, int method) throws JuggleExceptionInternal {
+    static protected void findvels_edges_known(double[] v, double[] x, double[] t, int n, int method,
+                        Workspace ws) throws JuggleExceptionInternal {
         if (n < 2) return;
 
-        double[] Adiag = new double[n-1];
-        double[] Aoffd = new double[n-1];   // A is symmetric
-        double[] b = new double[n-1];
+        double[] Adiag = ws.Adiag;
+        double[] Aoffd = ws.Aoffd;          // A is symmetric
+        double[] b = ws.b;
 
         for (int i = 0; i < n-1; i++) {
             switch (method) {
@@ -129,8 +169,8 @@ public class SplineCurve extends Curve {
             }
         }
 
-        double[] vtemp = new double[n-1];               // n-1 unknown velocities
-        tridag(Aoffd, Adiag, Aoffd, b, vtemp, n-1);     // solve
+        double[] vtemp = ws.vtemp;                      // n-1 unknown velocities
+        tridag(Aoffd, Adiag, Aoffd, b, vtemp, n-1, ws.gam);     // solve
         for (int i = 0; i < n-1; i++)
             v[i+1] = vtemp[i];
     }
@@ -147,13 +187,14 @@ public class SplineCurve extends Curve {
     // to solve the full problem.  See pg. 77 from Numerical Recipes in C, first
     // edition.
 
-    static protected void findvels_edges_unknown(double[] v, double[] x, double[] t, int n, int method) throws JuggleExceptionInternal {
+    static protected void findvels_edges_unknown(double[] v, double[] x, double[] t, int n, int method,
+                        Workspace ws) throws JuggleExceptionInternal {
         if (n < 2) return;
 
-        double[] Adiag = new double[n];
-        double[] Aoffd = new double[n];     // A is symmetric
+        double[] Adiag = ws.Adiag;
+        double[] Aoffd = ws.Aoffd;          // A is symmetric
         double Acorner = 0.0;               // nonzero element in UR/LL corners of A
-        double[] b = new double[n];
+        double[] b = ws.b;
 
         for (int i = 0; i < n; i++) {
             switch (method) {
@@ -190,20 +231,20 @@ public class SplineCurve extends Curve {
             System.out.println("  b["+i+"] = "+b[i]); */
 
         // Woodbury's formula: solve the problem ignoring A's nonzero corners
-        tridag(Aoffd, Adiag, Aoffd, b, v, n);
+        tridag(Aoffd, Adiag, Aoffd, b, v, n, ws.gam);
 
         if (n > 2) {        // need to deal with nonzero corners?
                     // solve a few auxiliary problems:
-            double[] z1 = new double[n];
+            double[] z1 = ws.z1;
             b[0] = Acorner;
             for (int i = 1; i < n; i++)
                 b[i] = 0.0;
-            tridag(Aoffd, Adiag, Aoffd, b, z1, n);
-            double[] z2 = new double[n];
+            tridag(Aoffd, Adiag, Aoffd, b, z1, n, ws.gam);
+            double[] z2 = ws.z2;
             b[n-1] = Acorner;
             for (int i = 0; i < n-1; i++)
                 b[i] = 0.0;
-            tridag(Aoffd, Adiag, Aoffd, b, z2, n);
+            tridag(Aoffd, Adiag, Aoffd, b, z2, n, ws.gam);
 
             // now we need to calculate a 2x2 matrix H:
             double H00, H01, H10, H11;
@@ -244,13 +285,13 @@ public class SplineCurve extends Curve {
     // The following method is adapted from Numerical Recipes.  It solves
     // the linear system A.u = r where A is tridiagonal.  a[] is the
     // subdiagonal, b[] the diagonal, c[] the superdiagonal.  a, b, c, r, and
-    // u are indexed from 0.  Only the array u[] is changed.
+    // u are indexed from 0.  Only the arrays u[] and gam[] (working space, at
+    // least n long) are changed.
 
-    static protected void tridag(double[] a, double[] b, double[] c, double[] r, double[] u, int n)
-                        throws JuggleExceptionInternal {
+    static protected void tridag(double[] a, double[] b, double[] c, double[] r, double[] u, int n,
+                        double[] gam) throws JuggleExceptionInternal {
         int j;
         double bet;
-        double[] gam = new double[n];
 
         if (b[0] == 0.0)
             throw new JuggleExceptionInternal("Error 1 in TRIDAG");
@@ -272,17 +313,41 @@ public class SplineCurve extends Curve {
         if (time < times[0] || time > times[n])
             return;
 
-        int i;
-        for (i = 0; i < n; i++)
-            if (time <= times[i+1])
-                break;
-        if (i == n)
-            i = n-1;
+        int i = findSegment(time);
 
         time -= times[i];
-        newPosition.setCoordinate(a[i][0]+time*(b[i][0]+time*(c[i][0]+time*d[i][0])),
-                                  a[i][1]+time*(b[i][1]+time*(c[i][1]+time*d[i][1])),
-                                  a[i][2]+time*(b[i][2]+time*(c[i][2]+time*d[i][2])) );
+        int k = 12*i;
+        newPosition.setCoordinate(coef[k]+time*(coef[k+1]+time*(coef[k+2]+time*coef[k+3])),
+                                  coef[k+4]+time*(coef[k+5]+time*(coef[k+6]+time*coef[k+7])),
+                                  coef[k+8]+time*(coef[k+9]+time*(coef[k+10]+time*coef[k+11])) );
+    }
+
+    @Override
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        int k = from;
+        while (k < to && t[k] < times[0])
+            k++;
+
+        // segment i takes the times up to and including times[i+1]
+        for (int i = 0; i < n && k < to; i++) {
+            int end = k;
+            while (end < to && t[end] <= times[i+1])
+                end++;
+
+            double t0 = times[i];
+            int m = 12*i;
+            double a0 = coef[m],   b0 = coef[m+1], c0 = coef[m+2],  d0 = coef[m+3];
+            double a1 = coef[m+4], b1 = coef[m+5], c1 = coef[m+6],  d1 = coef[m+7];
+            double a2 = coef[m+8], b2 = coef[m+9], c2 = coef[m+10], d2 = coef[m+11];
+
+            for (; k < end; k++) {
+                double time = t[k] - t0;
+                x[k] = a0+time*(b0+time*(c0+time*d0));
+                y[k] = a1+time*(b1+time*(c1+time*d1));
+                z[k] = a2+time*(b2+time*(c2+time*d2));
+            }
+        }
     }
 
     @Override
@@ -308,15 +373,16 @@ public class SplineCurve extends Curve {
                     result = check(result, thightemp, true);
 
                     for (int index = 0; index < 3; index++) {
-                        if (Math.abs(d[i][index]) > 1.0e-6) {
-                            double k = c[i][index]*c[i][index] - 3.0*b[i][index]*d[i][index];
+                        int j = 12*i + 4*index;
+                        if (Math.abs(coef[j+3]) > 1.0e-6) {
+                            double k = coef[j+2]*coef[j+2] - 3.0*coef[j+1]*coef[j+3];
                             if (k > 0.0) {
-                                double te = times[i] + (-c[i][index]-Math.sqrt(k))/(3*d[i][index]);
+                                double te = times[i] + (-coef[j+2]-Math.sqrt(k))/(3*coef[j+3]);
                                 if (tlowtemp < te && te < thightemp)
                                     result = check(result, te, true);
                             }
-                        } else if (c[i][index] < 0.0) {
-                            double te = -b[i][index]/(2.0*c[i][index]);
+                        } else if (coef[j+2] < 0.0) {
+                            double te = -coef[j+1]/(2.0*coef[j+2]);
                             te += times[i];
                             if (tlowtemp < te && te < thightemp)
                                 result = check(result, te, true);
@@ -352,15 +418,16 @@ public class SplineCurve extends Curve {
                     result = check(result, thightemp, false);
 
                     for (int index = 0; index < 3; index++) {
-                        if (Math.abs(d[i][index]) > 1.0e-6) {
-                            double k = c[i][index]*c[i][index] - 3.0*b[i][index]*d[i][index];
+                        int j = 12*i + 4*index;
+                        if (Math.abs(coef[j+3]) > 1.0e-6) {
+                            double k = coef[j+2]*coef[j+2] - 3.0*coef[j+1]*coef[j+3];
                             if (k > 0.0) {
-                                double te = times[i] + (-c[i][index]+Math.sqrt(k))/(3*d[i][index]);
+                                double te = times[i] + (-coef[j+2]+Math.sqrt(k))/(3*coef[j+3]);
                                 if (tlowtemp < te && te < thightemp)
                                     result = check(result, te, false);
                             }
-                        } else if (c[i][index] > 0.0) {
-                            double te = -b[i][index]/(2.0*c[i][index]);
+                        } else if (coef[j+2] > 0.0) {
+                            double te = -coef[j+1]/(2.0*coef[j+2]);
                             te += times[i];
                             if (tlowtemp < te && te < thightemp)
                                 result = check(result, te, false);
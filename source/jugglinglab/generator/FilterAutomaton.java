@@ -0,0 +1,605 @@
+// FilterAutomaton.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+
+// This class combines the generator's include and exclude regular expressions
+// into a single deterministic finite automaton (DFA) over the characters the
+// generator prints. The generator advances the DFA one throw at a time as it
+// builds a pattern, so it can tell immediately when the pattern so far
+// matches an exclude, or when some include can no longer be matched by any
+// continuation, and cut off the search there.
+//
+// Matching has the same meaning as java.util.regex.Matcher.matches(), i.e.,
+// the whole string must match. Only the regular subset of Java's syntax is
+// supported: literals and escapes, '.', character classes (no nesting or
+// intersections), groups, alternation, greedy or reluctant quantifiers, and
+// '^' and '$'. compile() returns null for anything else, and the generator
+// falls back to java.util.regex.
+
+class FilterAutomaton {
+    // characters that SiteswapGenerator.print_throw() can produce
+    protected final static String alphabet =
+                    "0123456789abcdefghijklmnopqrstuvwxyz[]()<>|,/";
+    protected final static int[] char_index = new int[128];
+
+    static {
+        for (int i = 0; i < 128; i++)
+            char_index[i] = -1;
+        for (int i = 0; i < alphabet.length(); i++)
+            char_index[alphabet.charAt(i)] = i;
+    }
+
+    // limits on the sizes of things we'll build
+    protected final static int max_regexes = 64;
+    protected final static int max_dfa_states = 1 << 14;
+
+    // DFA
+    protected int num_states;
+    protected int[] transition;     // [state * alphabet.length() + char index]; -1 = dead
+    protected long[] accept;        // regexes that match the string so far
+    protected long[] possible;      // regexes that can still match some extension
+    protected long exclude_mask, include_mask;
+
+
+    // Returns null if any of the expressions uses unsupported syntax, or if
+    // the automaton would be too large.
+    public static FilterAutomaton compile(List<String> exclude, List<String> include) {
+        int num = exclude.size() + include.size();
+        if (num > max_regexes)
+            return null;
+
+        try {
+            Nfa nfa = new Nfa();
+            ArrayList<Integer> starts = new ArrayList<Integer>();
+            for (int i = 0; i < num; i++) {
+                String re = (i < exclude.size() ? exclude.get(i) : include.get(i - exclude.size()));
+                Node ast = new Parser(re).parse();
+                int match = nfa.add(Nfa.MATCH, null, -1, -1);
+                nfa.match_id[match] = i;
+                starts.add(ast.build(nfa, match));
+            }
+
+            FilterAutomaton fa = new FilterAutomaton();
+            for (int i = 0; i < num; i++) {
+                if (i < exclude.size())
+                    fa.exclude_mask |= (1L << i);
+                else
+                    fa.include_mask |= (1L << i);
+            }
+            return (fa.build_dfa(nfa, starts) ? fa : null);
+        } catch (UnsupportedException ue) {
+            return null;
+        }
+    }
+
+    public int start() {
+        return 0;
+    }
+
+    // Returns the state after reading one more character, or -1 if no
+    // expression can match any more (the dead state).
+    public int step(int state, char ch) {
+        if (state < 0 || ch >= 128 || char_index[ch] < 0)
+            return -1;
+        return transition[state * alphabet.length() + char_index[ch]];
+    }
+
+    // does the string so far match any exclude?
+    public boolean isExcluded(int state) {
+        return (state >= 0 && (accept[state] & exclude_mask) != 0);
+    }
+
+    // does the string so far match every include?
+    public boolean isIncluded(int state) {
+        if (state < 0)
+            return (include_mask == 0);
+        return ((accept[state] & include_mask) == include_mask);
+    }
+
+    // can some extension of the string so far match every include?
+    public boolean isIncludePossible(int state) {
+        if (state < 0)
+            return (include_mask == 0);
+        return ((possible[state] & include_mask) == include_mask);
+    }
+
+
+    // Subset construction. DFA state 0 is the start.
+    protected boolean build_dfa(Nfa nfa, List<Integer> starts) {
+        int alen = alphabet.length();
+        long[] reach = nfa.find_reach();
+
+        HashMap<BitSet, Integer> index = new HashMap<BitSet, Integer>();
+        ArrayList<BitSet> sets = new ArrayList<BitSet>();
+
+        BitSet init = new BitSet();
+        for (int s : starts)
+            nfa.closure(s, init, true, false);
+        index.put(init, 0);
+        sets.add(init);
+
+        transition = new int[16 * alen];
+        accept = new long[16];
+        possible = new long[16];
+
+        for (int d = 0; d < sets.size(); d++) {
+            BitSet set = sets.get(d);
+
+            if (d == accept.length) {
+                transition = grow(transition, 2 * transition.length);
+                accept = grow(accept);
+                possible = grow(possible);
+            }
+
+            // which expressions match here, allowing for '$' (and for '^'
+            // in the start state)
+            BitSet end = new BitSet();
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+                nfa.closure(s, end, d == 0, true);
+            for (int s = end.nextSetBit(0); s >= 0; s = end.nextSetBit(s + 1)) {
+                if (nfa.type[s] == Nfa.MATCH)
+                    accept[d] |= (1L << nfa.match_id[s]);
+                possible[d] |= reach[s];
+            }
+
+            for (int c = 0; c < alen; c++) {
+                BitSet next = new BitSet();
+                for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+                    if (nfa.type[s] == Nfa.CHAR && nfa.chars[s].get(c))
+                        nfa.closure(nfa.out1[s], next, false, false);
+                }
+
+                int target = -1;
+                if (!next.isEmpty()) {
+                    Integer t = index.get(next);
+                    if (t == null) {
+                        if (sets.size() == max_dfa_states)
+                            return false;
+                        t = sets.size();
+                        index.put(next, t);
+                        sets.add(next);
+                    }
+                    target = t.intValue();
+                }
+                transition[d * alen + c] = target;
+            }
+        }
+
+        num_states = sets.size();
+        return true;
+    }
+
+    protected static int[] grow(int[] a, int size) {
+        int[] result = new int[size];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+
+    protected static long[] grow(long[] a) {
+        long[] result = new long[2 * a.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+
+
+    // Thrown by the parser for syntax it doesn't handle
+    protected static class UnsupportedException extends Exception {}
+
+
+    // Nondeterministic automaton (Thompson construction)
+    protected static class Nfa {
+        static final int CHAR = 0;      // one character in `chars`, then out1
+        static final int SPLIT = 1;     // epsilon to out1 and out2 (if >= 0)
+        static final int BOL = 2;       // epsilon to out1, at start of string only
+        static final int EOL = 3;       // epsilon to out1, at end of string only
+        static final int MATCH = 4;
+
+        int num;
+        int[] type = new int[64];
+        BitSet[] chars = new BitSet[64];
+        int[] out1 = new int[64];
+        int[] out2 = new int[64];
+        int[] match_id = new int[64];
+
+        int add(int t, BitSet c, int o1, int o2) {
+            if (num == type.length) {
+                int size = 2 * num;
+                type = grow(type, size);
+                out1 = grow(out1, size);
+                out2 = grow(out2, size);
+                match_id = grow(match_id, size);
+                BitSet[] newchars = new BitSet[size];
+                System.arraycopy(chars, 0, newchars, 0, num);
+                chars = newchars;
+            }
+            type[num] = t;
+            chars[num] = c;
+            out1[num] = o1;
+            out2[num] = o2;
+            return num++;
+        }
+
+        // Add to `set` all the states reachable from s without reading a
+        // character.
+        void closure(int s, BitSet set, boolean at_start, boolean at_end) {
+            if (s < 0 || set.get(s))
+                return;
+            set.set(s);
+
+            switch (type[s]) {
+                case SPLIT:
+                    closure(out1[s], set, at_start, at_end);
+                    closure(out2[s], set, at_start, at_end);
+                    break;
+                case BOL:
+                    if (at_start)
+                        closure(out1[s], set, at_start, at_end);
+                    break;
+                case EOL:
+                    if (at_end)
+                        closure(out1[s], set, at_start, at_end);
+                    break;
+            }
+        }
+
+        // For each state, the set of expressions whose MATCH state can be
+        // reached from it after the start of the string.
+        long[] find_reach() {
+            long[] reach = new long[num];
+            for (int s = 0; s < num; s++)
+                if (type[s] == MATCH)
+                    reach[s] = (1L << match_id[s]);
+
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int s = 0; s < num; s++) {
+                    long r = reach[s];
+                    switch (type[s]) {
+                        case CHAR:
+                            if (!chars[s].isEmpty())
+                                r |= reach[out1[s]];
+                            break;
+                        case SPLIT:
+                            if (out1[s] >= 0)
+                                r |= reach[out1[s]];
+                            if (out2[s] >= 0)
+                                r |= reach[out2[s]];
+                            break;
+                        case EOL:
+                            r |= reach[out1[s]];
+                            break;
+                    }
+                    if (r != reach[s]) {
+                        reach[s] = r;
+                        changed = true;
+                    }
+                }
+            }
+            return reach;
+        }
+    }
+
+
+    // Syntax tree for a regular expression. build() adds the states for the
+    // node to the NFA, leading to state `next`, and returns the entry state.
+    protected static abstract class Node {
+        abstract int build(Nfa nfa, int next);
+    }
+
+    protected static class CharNode extends Node {
+        BitSet chars;
+        CharNode(BitSet chars) { this.chars = chars; }
+
+        int build(Nfa nfa, int next) {
+            return nfa.add(Nfa.CHAR, chars, next, -1);
+        }
+    }
+
+    protected static class AnchorNode extends Node {
+        int type;
+        AnchorNode(int type) { this.type = type; }
+
+        int build(Nfa nfa, int next) {
+            return nfa.add(type, null, next, -1);
+        }
+    }
+
+    protected static class ConcatNode extends Node {
+        ArrayList<Node> items = new ArrayList<Node>();
+
+        int build(Nfa nfa, int next) {
+            for (int i = items.size() - 1; i >= 0; i--)
+                next = items.get(i).build(nfa, next);
+            return next;
+        }
+    }
+
+    protected static class AltNode extends Node {
+        ArrayList<Node> items = new ArrayList<Node>();
+
+        int build(Nfa nfa, int next) {
+            int entry = items.get(items.size() - 1).build(nfa, next);
+            for (int i = items.size() - 2; i >= 0; i--)
+                entry = nfa.add(Nfa.SPLIT, null, items.get(i).build(nfa, next), entry);
+            return entry;
+        }
+    }
+
+    protected static class RepeatNode extends Node {
+        Node item;
+        int min, max;       // max < 0 means no limit
+        RepeatNode(Node item, int min, int max) {
+            this.item = item;
+            this.min = min;
+            this.max = max;
+        }
+
+        int build(Nfa nfa, int next) {
+            int entry = next;
+
+            if (max < 0) {
+                int loop = nfa.add(Nfa.SPLIT, null, -1, next);
+                // build() may reallocate the state arrays, so don't look up
+                // nfa.out1 until it returns
+                int body = item.build(nfa, loop);
+                nfa.out1[loop] = body;
+                entry = loop;
+            } else {
+                for (int i = min; i < max; i++)
+                    entry = nfa.add(Nfa.SPLIT, null, item.build(nfa, entry), next);
+            }
+            for (int i = 0; i < min; i++)
+                entry = item.build(nfa, entry);
+            return entry;
+        }
+    }
+
+
+    protected static class Parser {
+        String re;
+        int pos;
+
+        Parser(String re) { this.re = re; }
+
+        Node parse() throws UnsupportedException {
+            Node result = parse_alt();
+            if (pos != re.length())
+                throw new UnsupportedException();
+            return result;
+        }
+
+        boolean more() { return pos < re.length(); }
+        char peek() { return re.charAt(pos); }
+
+        Node parse_alt() throws UnsupportedException {
+            AltNode alt = new AltNode();
+            alt.items.add(parse_concat());
+            while (more() && peek() == '|') {
+                pos++;
+                alt.items.add(parse_concat());
+            }
+            return (alt.items.size() == 1 ? alt.items.get(0) : alt);
+        }
+
+        Node parse_concat() throws UnsupportedException {
+            ConcatNode concat = new ConcatNode();
+            while (more() && peek() != '|' && peek() != ')')
+                concat.items.add(parse_repeat());
+            return concat;
+        }
+
+        Node parse_repeat() throws UnsupportedException {
+            Node atom = parse_atom();
+
+            while (more()) {
+                char ch = peek();
+                int min, max;
+
+                if (ch == '*') {
+                    min = 0;
+                    max = -1;
+                    pos++;
+                } else if (ch == '+') {
+                    min = 1;
+                    max = -1;
+                    pos++;
+                } else if (ch == '?') {
+                    min = 0;
+                    max = 1;
+                    pos++;
+                } else if (ch == '{') {
+                    int close = re.indexOf('}', pos);
+                    if (close < 0)
+                        throw new UnsupportedException();
+                    String bounds = re.substring(pos + 1, close);
+                    int comma = bounds.indexOf(',');
+                    try {
+                        if (comma < 0)
+                            min = max = Integer.parseInt(bounds);
+                        else {
+                            min = Integer.parseInt(bounds.substring(0, comma));
+                            String upper = bounds.substring(comma + 1);
+                            max = (upper.length() == 0 ? -1 : Integer.parseInt(upper));
+                        }
+                    } catch (NumberFormatException nfe) {
+                        throw new UnsupportedException();
+                    }
+                    if (min > 100 || max > 100 || (max >= 0 && max < min))
+                        throw new UnsupportedException();
+                    pos = close + 1;
+                } else
+                    break;
+
+                if (more() && peek() == '+')
+                    throw new UnsupportedException();   // possessive
+                if (more() && peek() == '?')
+                    pos++;      // reluctant; same set of full matches
+
+                atom = new RepeatNode(atom, min, max);
+            }
+            return atom;
+        }
+
+        Node parse_atom() throws UnsupportedException {
+            char ch = re.charAt(pos++);
+
+            switch (ch) {
+                case '(':
+                    if (more() && peek() == '?') {
+                        if (pos + 1 < re.length() && re.charAt(pos + 1) == ':')
+                            pos += 2;
+                        else
+                            throw new UnsupportedException();
+                    }
+                    Node inner = parse_alt();
+                    if (!more() || peek() != ')')
+                        throw new UnsupportedException();
+                    pos++;
+                    return inner;
+                case '[':
+                    return new CharNode(parse_class());
+                case '.': {
+                    BitSet all = new BitSet();
+                    all.set(0, alphabet.length());
+                    return new CharNode(all);
+                }
+                case '^':
+                    return new AnchorNode(Nfa.BOL);
+                case '$':
+                    return new AnchorNode(Nfa.EOL);
+                case '\\':
+                    return new CharNode(parse_escape());
+                case ')':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedException();
+                default:
+                    return new CharNode(single(ch));
+            }
+        }
+
+        // after a backslash
+        BitSet parse_escape() throws UnsupportedException {
+            if (!more())
+                throw new UnsupportedException();
+            char ch = re.charAt(pos++);
+
+            switch (ch) {
+                case 'd':
+                    return range('0', '9');
+                case 'D': {
+                    BitSet result = range('0', '9');
+                    result.flip(0, alphabet.length());
+                    return result;
+                }
+                case 'w': {
+                    BitSet result = range('0', '9');
+                    result.or(range('a', 'z'));
+                    return result;
+                }
+                case 'W': {
+                    BitSet result = range('0', '9');
+                    result.or(range('a', 'z'));
+                    result.flip(0, alphabet.length());
+                    return result;
+                }
+                case 's':
+                case 'n':
+                case 't':
+                case 'r':
+                case 'f':
+                    return new BitSet();    // nothing the generator prints
+                case 'S': {
+                    BitSet result = new BitSet();
+                    result.set(0, alphabet.length());
+                    return result;
+                }
+                default:
+                    if (Character.isLetterOrDigit(ch))
+                        throw new UnsupportedException();   // \b, \1, \p, ...
+                    return single(ch);
+            }
+        }
+
+        // after an opening bracket
+        BitSet parse_class() throws UnsupportedException {
+            BitSet result = new BitSet();
+            boolean negate = false;
+            boolean first = true;
+
+            if (more() && peek() == '^') {
+                negate = true;
+                pos++;
+            }
+
+            while (true) {
+                if (!more())
+                    throw new UnsupportedException();
+                char ch = re.charAt(pos++);
+
+                if (ch == ']' && !first)
+                    break;
+                first = false;
+
+                if (ch == '[' || (ch == '&' && more() && peek() == '&'))
+                    throw new UnsupportedException();   // nested classes
+
+                if (ch == '\\') {
+                    if (more() && Character.isLetterOrDigit(peek())) {
+                        result.or(parse_escape());
+                        continue;
+                    }
+                    if (!more())
+                        throw new UnsupportedException();
+                    ch = re.charAt(pos++);
+                }
+
+                if (more() && peek() == '-' && pos + 1 < re.length() &&
+                            re.charAt(pos + 1) != ']') {
+                    pos++;
+                    char hi = re.charAt(pos++);
+                    if (hi == '\\') {
+                        if (!more() || Character.isLetterOrDigit(peek()))
+                            throw new UnsupportedException();
+                        hi = re.charAt(pos++);
+                    } else if (hi == '[')
+                        throw new UnsupportedException();
+                    if (hi < ch)
+                        throw new UnsupportedException();
+                    result.or(range(ch, hi));
+                } else
+                    result.or(single(ch));
+            }
+
+            if (negate)
+                result.flip(0, alphabet.length());
+            return result;
+        }
+
+        static BitSet single(char ch) {
+            BitSet result = new BitSet();
+            if (ch < 128 && char_index[ch] >= 0)
+                result.set(char_index[ch]);
+            return result;
+        }
+
+        static BitSet range(char lo, char hi) {
+            BitSet result = new BitSet();
+            for (char ch = lo; ch <= hi && ch < 128; ch++)
+                if (char_index[ch] >= 0)
+                    result.set(char_index[ch]);
+            return result;
+        }
+    }
+}
@@ -64,4 +64,13 @@ public abstract class Generator {
     // run the generator with bounds on space and time
     public abstract int runGenerator(GeneratorTarget t, int max_num,
                                      double secs) throws JuggleExceptionUser;
+
+    // return patterns on demand instead of pushing them to a target
+    public GeneratorIterator iterator() {
+        return iterator(-1, -1.0);
+    }
+
+    public GeneratorIterator iterator(int max_num, double secs) {
+        return new GeneratorIterator(this, max_num, secs);
+    }
 }
@@ -0,0 +1,175 @@
+// GeneratorCheckpoint.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.io.*;
+import java.nio.file.*;
+import java.text.MessageFormat;
+import java.util.Properties;
+import java.util.ResourceBundle;
+
+import jugglinglab.util.*;
+
+
+// This class records how far SiteswapGenerator has gotten in a search, so that
+// a search that is stopped can later be resumed where it left off.
+//
+// The generator finds patterns by a depth-first search over the choices of
+// throw at each beat, for each period and starting state in turn. The point
+// reached in the search is given by the period, the index of the starting
+// state, and the list of throws chosen so far (the path from the root of the
+// search tree). Everything to the left of that path has been searched. If
+// `explored` is set then the node at the end of the path has been searched
+// as well; this is the case when the search stops right after a pattern is
+// printed.
+//
+// Checkpoints are saved as a small properties file, along with the generator
+// options that define the search.
+
+class GeneratorCheckpoint {
+    static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
+
+    protected final static String header = "Juggling Lab generator checkpoint";
+    protected final static int version = 1;
+
+    protected String[] args;            // options defining the search
+    protected int period;               // l in the generator
+    protected int start;                // index of starting state within period
+    protected int path_length;
+    protected int[] path_value;         // throws chosen, in the order made
+    protected int[] path_to;
+    protected boolean explored;         // node at end of path searched?
+    protected boolean finished;         // entire search done?
+    protected long count;               // patterns found before this point
+
+
+    public GeneratorCheckpoint(String[] args) {
+        this.args = args;
+        path_value = new int[0];
+        path_to = new int[0];
+    }
+
+    public String[] getArgs() {
+        return args;
+    }
+
+    // Record the search position. The path arrays are reused across calls.
+    public void setPosition(int period, int start, int path_length, boolean explored) {
+        this.period = period;
+        this.start = start;
+        this.path_length = path_length;
+        this.explored = explored;
+        this.finished = false;
+    }
+
+    public void ensurePathCapacity(int size) {
+        if (path_value.length < size) {
+            path_value = new int[size];
+            path_to = new int[size];
+        }
+    }
+
+    public void setFinished() {
+        finished = true;
+        path_length = 0;
+    }
+
+    // Compare choice number `index` along the path to the given throw, in the
+    // order that gen_loops() tries throws (by value, then by destination).
+    public int compareChoice(int index, int value, int to) {
+        if (value != path_value[index])
+            return (value < path_value[index] ? -1 : 1);
+        if (to != path_to[index])
+            return (to < path_to[index] ? -1 : 1);
+        return 0;
+    }
+
+    public static GeneratorCheckpoint read(String filename) throws JuggleExceptionUser {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(filename)) {
+            p.load(in);
+        } catch (IOException ioe) {
+            String template = errorstrings.getString("Error_reading_file");
+            Object[] arguments = { filename };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+
+        try {
+            if (Integer.parseInt(p.getProperty("version")) != version)
+                throw new NumberFormatException();
+
+            String[] args = new String[Integer.parseInt(p.getProperty("args"))];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = p.getProperty("arg." + i);
+                if (args[i] == null)
+                    throw new NumberFormatException();
+            }
+
+            GeneratorCheckpoint gc = new GeneratorCheckpoint(args);
+            gc.finished = Boolean.parseBoolean(p.getProperty("finished"));
+            gc.explored = Boolean.parseBoolean(p.getProperty("explored"));
+            gc.period = Integer.parseInt(p.getProperty("period"));
+            gc.start = Integer.parseInt(p.getProperty("start"));
+            gc.count = Long.parseLong(p.getProperty("count", "0"));
+
+            String path = p.getProperty("path").trim();
+            String[] choices = (path.length() == 0 ? new String[0] : path.split("\\s+"));
+            gc.ensurePathCapacity(choices.length);
+            gc.path_length = choices.length;
+            for (int i = 0; i < choices.length; i++) {
+                int comma = choices[i].indexOf(',');
+                gc.path_value[i] = Integer.parseInt(choices[i].substring(0, comma));
+                gc.path_to[i] = Integer.parseInt(choices[i].substring(comma + 1));
+            }
+            return gc;
+        } catch (RuntimeException re) {
+            // missing property or bad number
+            String template = errorstrings.getString("Error_generator_checkpoint_invalid");
+            Object[] arguments = { filename };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+    }
+
+    // Write to a temporary file first, so an interrupted write doesn't
+    // destroy the previous checkpoint.
+    public void write(String filename) throws JuggleExceptionUser {
+        Properties p = new Properties();
+        p.setProperty("version", Integer.toString(version));
+        p.setProperty("args", Integer.toString(args.length));
+        for (int i = 0; i < args.length; i++)
+            p.setProperty("arg." + i, args[i]);
+        p.setProperty("finished", Boolean.toString(finished));
+        p.setProperty("explored", Boolean.toString(explored));
+        p.setProperty("period", Integer.toString(period));
+        p.setProperty("start", Integer.toString(start));
+        p.setProperty("count", Long.toString(count));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < path_length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(path_value[i]).append(',').append(path_to[i]);
+        }
+        p.setProperty("path", sb.toString());
+
+        Path file = Paths.get(filename).toAbsolutePath();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp.toFile())) {
+                p.store(out, header);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            String template = errorstrings.getString("Error_writing_file");
+            Object[] arguments = { filename };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+    }
+}
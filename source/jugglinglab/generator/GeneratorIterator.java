@@ -0,0 +1,198 @@
+// GeneratorIterator.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import jugglinglab.util.*;
+
+
+// This class lets a caller pull patterns out of a generator on demand, as an
+// alternative to having the generator push them into a GeneratorTarget.
+//
+// The generator runs on its own thread and hands finished patterns over
+// through a small queue. When the queue is full the generator blocks until
+// the caller takes more, so patterns are only generated as fast as they are
+// consumed. This also holds for a parallel search (-par), since its workers
+// can only run a bounded distance ahead of the output (see
+// SiteswapGenerator.run_parallel()). Call close() (or close the stream) to
+// stop the generator early.
+
+public class GeneratorIterator implements Iterator<GeneratorIterator.GeneratedPattern>,
+                                          AutoCloseable {
+    // number of patterns the generator may run ahead of the caller
+    protected final static int queue_size = 64;
+
+    // marks the end of the output in the queue
+    protected final static GeneratedPattern end_marker = new GeneratedPattern(null, null, null);
+
+    protected BlockingQueue<GeneratedPattern> queue;
+    protected Thread thread;
+    protected GeneratedPattern next;
+    protected boolean finished;
+    protected volatile boolean closed;
+    protected volatile JuggleExceptionUser exception;
+    protected volatile RuntimeException failure;
+
+
+    // The generator must already be initialized with initGenerator(). As with
+    // runGenerator(), a max_num < 0 or secs <= 0 means no limit.
+    public GeneratorIterator(final Generator gen, final int max_num, final double secs) {
+        queue = new ArrayBlockingQueue<GeneratedPattern>(queue_size);
+
+        thread = new Thread("Generator") {
+            @Override
+            public void run() {
+                try {
+                    gen.runGenerator(new QueueTarget(), max_num, secs);
+                } catch (StopException se) {
+                } catch (JuggleExceptionUser jeu) {
+                    exception = jeu;
+                } catch (RuntimeException re) {
+                    failure = re;
+                } finally {
+                    try {
+                        queue.put(end_marker);
+                    } catch (InterruptedException ie) {
+                        // closed, so no one is waiting for the end marker
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null)
+            return true;
+        if (finished || closed)
+            return false;
+
+        try {
+            next = queue.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            return false;
+        }
+
+        if (next == end_marker) {
+            next = null;
+            finished = true;
+            if (failure != null)
+                throw failure;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public GeneratedPattern next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        GeneratedPattern result = next;
+        next = null;
+        return result;
+    }
+
+    // Stop the generator and wait for its thread to finish, so the generator
+    // can be used again. Any patterns not yet taken are discarded.
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        next = null;
+        thread.interrupt();
+        queue.clear();
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // Returns the exception that ended the run, or null if the generator ran
+    // to completion (or hasn't finished yet). A JuggleExceptionDone here means
+    // one of the limits on pattern count or time was reached.
+    public JuggleExceptionUser getException() {
+        return exception;
+    }
+
+    public Spliterator<GeneratedPattern> spliterator() {
+        return Spliterators.spliteratorUnknownSize(this,
+                    Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    // Sequential stream over the patterns; closing it stops the generator.
+    public Stream<GeneratedPattern> stream() {
+        return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+
+    // One pattern from the generator, in the same three forms that are passed
+    // to GeneratorTarget.writePattern()
+    public static class GeneratedPattern {
+        protected String display, notation, anim;
+
+        public GeneratedPattern(String display, String notation, String anim) {
+            this.display = display;
+            this.notation = notation;
+            this.anim = anim;
+        }
+
+        // line as it appears in the generator's output
+        public String getDisplay()  { return display; }
+
+        // name of the notation the pattern is in, e.g. "siteswap"
+        public String getNotation() { return notation; }
+
+        // pattern in a form that can be given to the animator
+        public String getAnim()     { return anim; }
+
+        @Override
+        public String toString()    { return display; }
+    }
+
+    // Thrown inside the generator thread to unwind it after close()
+    protected static class StopException extends RuntimeException {}
+
+    protected class QueueTarget extends GeneratorTarget {
+        @Override
+        public void writePattern(String display, String notation, String anim) {
+            if (closed)
+                throw new StopException();
+            try {
+                queue.put(new GeneratedPattern(display, notation, anim));
+            } catch (InterruptedException ie) {
+                throw new StopException();
+            }
+        }
+
+        @Override
+        public void setStatus(String display) {}
+    }
+}
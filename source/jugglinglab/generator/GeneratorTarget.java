@@ -17,6 +17,9 @@ public class GeneratorTarget {
     PrintStream ptarget = null;
 
 
+    // for subclasses that handle the output themselves
+    protected GeneratorTarget() {}
+
     public GeneratorTarget(PatternListWindow target) {
         this.ltarget = target.getPatternList();
     }
@@ -0,0 +1,174 @@
+// ShardMerger.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.io.*;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import jugglinglab.util.*;
+
+
+// This class combines the outputs of a generator search that was split into
+// shards with the -shard option (see SiteswapGenerator), putting the patterns
+// into the same order as a single run would.
+//
+// In a shard's output, the patterns from each unit of the search are preceded
+// by a line
+//
+//     # unit <period> <starting state index> <first beat throws>
+//
+// and the pattern count (if requested) is given at the end as
+//
+//     # count <number>
+//
+// Units are ordered by period, then starting state, then the first beat
+// throws compared one throw at a time. Within each shard the units already
+// come in this order, so the merge only needs to look at the next unit of
+// each shard. Output from a shard that was stopped and resumed (-ckpt and
+// -resume) can simply be appended into one file; the last count in each
+// file is used, since that includes the earlier runs.
+
+public class ShardMerger {
+    static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
+    static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
+
+    public final static String unit_marker = "# unit ";
+    public final static String count_marker = "# count ";
+
+
+    public static void merge(List<String> filenames, GeneratorTarget target)
+                    throws JuggleExceptionUser {
+        ArrayList<Shard> shards = new ArrayList<Shard>();
+
+        try {
+            for (String filename : filenames)
+                shards.add(new Shard(filename));
+
+            // anything before the first unit (there shouldn't be any)
+            for (Shard s : shards)
+                s.copyUnit(target);
+
+            while (true) {
+                Shard next = null;
+                for (Shard s : shards) {
+                    if (s.key != null && (next == null || compare_keys(s.key, next.key) < 0))
+                        next = s;
+                }
+                if (next == null)
+                    break;
+                next.copyUnit(target);
+            }
+
+            boolean counted = false;
+            long count = 0;
+            for (Shard s : shards) {
+                if (s.count >= 0) {
+                    counted = true;
+                    count += s.count;
+                }
+            }
+
+            if (counted) {
+                if (count == 1)
+                    target.setStatus(guistrings.getString("Generator_patterns_1"));
+                else {
+                    String template = guistrings.getString("Generator_patterns_ne1");
+                    Object[] arguments = { Long.valueOf(count) };
+                    target.setStatus(MessageFormat.format(template, arguments));
+                }
+            }
+        } finally {
+            for (Shard s : shards)
+                s.close();
+        }
+    }
+
+    // Compare two unit markers, split into numbers
+    protected static int compare_keys(long[] a, long[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            if (a[i] != b[i])
+                return (a[i] < b[i] ? -1 : 1);
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+
+    // One shard's output file, positioned at the start of a unit
+    protected static class Shard {
+        String filename;
+        BufferedReader in;
+        String line;        // next line, or null at end of file
+        long[] key;         // key of the next unit, or null if none
+        long count = -1;    // pattern count, if given
+
+        Shard(String filename) throws JuggleExceptionUser {
+            this.filename = filename;
+            try {
+                in = new BufferedReader(new InputStreamReader(
+                                new FileInputStream(filename), "UTF-8"));
+            } catch (IOException ioe) {
+                throw error("Error_reading_file");
+            }
+            advance();
+        }
+
+        // Write out the lines up to the start of the next unit.
+        void copyUnit(GeneratorTarget target) throws JuggleExceptionUser {
+            if (key != null)
+                advance();      // skip the marker line
+
+            while (line != null && !line.startsWith(unit_marker)) {
+                if (line.startsWith(count_marker)) {
+                    try {
+                        count = Long.parseLong(line.substring(count_marker.length()).trim());
+                    } catch (NumberFormatException nfe) {
+                        throw error("Error_generator_shard_file");
+                    }
+                } else
+                    target.writePattern(line, null, null);
+                advance();
+            }
+
+            key = (line == null ? null : parse_key(line));
+        }
+
+        void advance() throws JuggleExceptionUser {
+            try {
+                line = in.readLine();
+            } catch (IOException ioe) {
+                throw error("Error_reading_file");
+            }
+        }
+
+        long[] parse_key(String marker) throws JuggleExceptionUser {
+            String[] fields = marker.substring(unit_marker.length()).trim().split("[\\s,]+");
+            long[] result = new long[fields.length];
+            try {
+                for (int i = 0; i < fields.length; i++)
+                    result[i] = Long.parseLong(fields[i]);
+            } catch (NumberFormatException nfe) {
+                throw error("Error_generator_shard_file");
+            }
+            return result;
+        }
+
+        JuggleExceptionUser error(String key) {
+            String template = errorstrings.getString(key);
+            Object[] arguments = { filename };
+            return new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+
+        void close() {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException ioe) {
+            }
+        }
+    }
+}
@@ -5,7 +5,12 @@
 package jugglinglab.generator;
 
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javax.swing.JPanel;
@@ -38,7 +43,7 @@ import jugglinglab.core.Constants;
 /*   Bug fix to find_start_end() on 02/18/99                            */
 /************************************************************************/
 
-public class SiteswapGenerator extends Generator {
+public class SiteswapGenerator extends Generator implements Cloneable {
     // Different types of siteswaps
     protected final static int ASYNC = 0;  /* different types of modes */
     protected final static int SYNC = 1;
@@ -72,6 +77,8 @@ public class SiteswapGenerator extends Generator {
     protected int ground_state_length;
     protected int n, ht, l, llow, lhigh;
     protected ArrayList<Pattern> exclude, include;
+    protected FilterAutomaton filter_automaton; // exclude/include combined, or null
+    protected int pattern_match[];      // filter_automaton state at each position
     protected char[] output;
     protected int outputpos;
     protected int numflag, groundflag;
@@ -82,7 +89,8 @@ public class SiteswapGenerator extends Generator {
     protected boolean connected_patterns;
     protected boolean[] connections;
     protected boolean juggler_permutations;
-    protected boolean[] perm_scratch1, perm_scratch2;
+    protected int[] perm_score1, perm_score2;
+    protected int[] loop_start;         // starts of loops, for is_greatest_rotation()
     protected int mode, jugglers, slot_size;
     protected char[] starting_seq, ending_seq;
     protected int starting_seq_length, ending_seq_length;
@@ -94,6 +102,46 @@ public class SiteswapGenerator extends Generator {
     protected long start_time_millis;   // start time of run, in milliseconds
     protected int loop_counter;         // gen_loop() counter for checking timeout
     protected final static int loop_counter_max = 20000;
+    protected final static int max_packed_words = 2;
+    protected final static int max_graph_states = 1 << 16;  // largest state graph to search with
+
+    // Packed state representation, used when there is no multiplexing. Each
+    // state is a bit string with bit (j*hands + i) set if hand i has a ball
+    // landing j beats from now; comparing these as unsigned numbers, most
+    // significant word first, gives the same ordering as compare_states().
+    protected boolean packed_states;
+    protected int packed_words;         // longs per packed state
+    protected long pattern_packed[][];  // packed version of pattern_state
+
+    // State graph to take throws from, if one is available (see
+    // SiteswapStateGraph). Only used with packed states.
+    protected SiteswapStateGraph state_graph;
+    protected int pattern_vertex[];     // state graph vertex at each position
+
+    protected int threads;              // worker threads for parallel search (0 = serial)
+    protected ArrayList<StartTask> start_tasks; // non-null when collecting parallel tasks
+    protected ArrayList<int[][][]> first_throws; // non-null when collecting first throws
+    protected AtomicBoolean abort_flag; // set to stop parallel workers
+
+    // Checkpointing, to stop a search and resume it later (see
+    // GeneratorCheckpoint)
+    protected String checkpoint_file;   // file to save progress to, or null
+    protected long checkpoint_millis;   // time between saves
+    protected long last_checkpoint_millis;
+    protected ArrayList<String> search_args; // options that define the search
+    protected GeneratorCheckpoint resume;   // where to resume from, or null
+    protected GeneratorCheckpoint frontier; // current position in search
+    protected boolean frontier_saved;   // frontier set since the run started?
+    protected long count_base;          // patterns found before current period
+    protected int start_count;          // starting states searched so far for this l
+    protected boolean replaying;        // following the path to resume point?
+    protected int replay_index;         // throws along that path matched so far
+    protected final static double default_checkpoint_secs = 60.0;
+
+    // Sharding, to split a search across processes (see ShardMerger)
+    protected int shards;               // number of shards (0 = not sharded)
+    protected int shard;                // which one this is, from 0
+    protected boolean unit_pending;     // unit marker not yet printed?
 
     protected SiteswapGeneratorControl control; // contains controls for generator
 
@@ -150,12 +198,24 @@ public class SiteswapGenerator extends Generator {
         sequenceflag = true;
         mode = ASYNC;          /* default mode */
         jugglers = 1;
+        threads = 0;
         target = null;
+        checkpoint_file = null;
+        checkpoint_millis = (long)(1000.0 * default_checkpoint_secs);
+        resume = null;
+        String resume_file = null;
+        shards = shard = 0;
 
         exclude = new ArrayList<Pattern>();
         include = new ArrayList<Pattern>();
 
+        search_args = new ArrayList<String>();
+        for (i = 0; i < 3; i++)
+            search_args.add(args[i]);
+
         for (i = 3; i < args.length; i++) {
+            int first = i;
+
             if (args[i].equals("-n"))
                 numflag = 1;
             else if (args[i].equals("-no"))
@@ -208,6 +268,56 @@ public class SiteswapGenerator extends Generator {
                     i++;
                 }
             }
+            else if (args[i].equals("-par")) {
+                threads = Runtime.getRuntime().availableProcessors();
+                if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
+                    try {
+                        threads = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException nfe) {
+                        String template = errorstrings.getString("Error_number_format");
+                        String str = guistrings.getString("Generator_threads");
+                        Object[] arguments = { str };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                    i++;
+                }
+            }
+            else if (args[i].equals("-ckpt")) {
+                if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
+                    checkpoint_file = args[++i];
+                    if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
+                        try {
+                            double secs = Double.parseDouble(args[i + 1]);
+                            checkpoint_millis = (long)(1000.0 * secs);
+                        } catch (NumberFormatException nfe) {
+                            String template = errorstrings.getString("Error_number_format");
+                            String str = guistrings.getString("Generator_checkpoint_interval");
+                            Object[] arguments = { str };
+                            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                        }
+                        i++;
+                    }
+                }
+            }
+            else if (args[i].equals("-shard")) {
+                if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
+                    String[] parts = args[++i].split("/");
+                    try {
+                        if (parts.length != 2)
+                            throw new NumberFormatException();
+                        shard = Integer.parseInt(parts[0]) - 1;
+                        shards = Integer.parseInt(parts[1]);
+                    } catch (NumberFormatException nfe) {
+                        shards = 0;
+                    }
+                    if (shards < 1 || shard < 0 || shard >= shards)
+                        throw new JuggleExceptionUser(errorstrings.getString("Error_generator_shard"));
+                }
+            }
+            else if (args[i].equals("-resume")) {
+                if (i < (args.length - 1) && args[i + 1].charAt(0) != '-')
+                    resume_file = args[++i];
+            }
             else if (args[i].equals("-j")) {
                 if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
                     try {
@@ -284,6 +394,29 @@ public class SiteswapGenerator extends Generator {
                 Object[] arguments = { args[i] };
                 throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
             }
+
+            // keep the options that affect which patterns are found
+            if (!args[first].equals("-ckpt") && !args[first].equals("-resume") &&
+                        !args[first].equals("-par")) {
+                for (j = first; j <= i; j++)
+                    search_args.add(args[j]);
+            }
+        }
+
+        if (resume_file != null) {
+            resume = GeneratorCheckpoint.read(resume_file);
+            if (!Arrays.equals(resume.getArgs(), search_args.toArray(new String[0]))) {
+                String template = errorstrings.getString("Error_generator_checkpoint_mismatch");
+                Object[] arguments = { resume_file };
+                throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+            }
+            if (checkpoint_file == null)
+                checkpoint_file = resume_file;  // keep saving progress there
+        }
+        if (checkpoint_file != null && threads > 0) {
+            // checkpoints are only for serial searches
+            System.out.println("Note: -par not used with -ckpt or -resume; ignored");
+            threads = 0;
         }
 
         //  if (mode != CUSTOM)
@@ -351,10 +484,6 @@ public class SiteswapGenerator extends Generator {
         if ((llow < 1) || (lhigh < 1) || (llow > lhigh))
             throw new JuggleExceptionUser(errorstrings.getString("Error_generator_period_problem"));
 
-        output = new char[lhigh * CHARS_PER_THROW];
-        outputpos = 0;
-
-
         if ((jugglers > 1) && !juggler_permutations && (groundflag != 0))
             throw new JuggleExceptionUser(errorstrings.getString("Error_juggler_permutations"));
 
@@ -384,15 +513,9 @@ public class SiteswapGenerator extends Generator {
         if (max_occupancy == 1)       /* no multiplexing, turn off filter */
             mp_filter = 0;
 
-        /*  Now allocate the memory space for the states, rhythms, and  */
-        /*  throws in the pattern, plus other incidental variables.     */
-
-        pattern_state = new int[lhigh+1][hands][ground_state_length];   // last index not ht because of find_start_end()
-
-        pattern_holes = new int[lhigh][hands][ht];
-
-        pattern_throw_to = new int[slot_size][hands][max_occupancy];// first index not l because of find_start_end()
-        pattern_throw_value = new int[slot_size][hands][max_occupancy];
+        /*  Now allocate the memory space for the rhythms, which are     */
+        /*  shared by all workers, and then the scratch space for the    */
+        /*  states and throws in the pattern.                            */
 
         pattern_rhythm = new int[slot_size+1][hands][ht];
         for (i = 0; i < (slot_size + 1); i++)
@@ -401,16 +524,9 @@ public class SiteswapGenerator extends Generator {
                     pattern_rhythm[i][j][k] =
                         multiplex * rhythm_repunit[j][(k + i) % rhythm_period];
 
-
-        if (mp_filter != 0)         /* allocate space for filter variables */
-            pattern_filter = new int[lhigh+1][hands][slot_size][3];
-
-        pattern_throwcount = new int[lhigh][hands];
-
-        if (jugglers > 1) {       /* passing communication delay variables */
-            scratch1 = new int[hands];
-            scratch2 = new int[hands];
-        }
+        packed_states = (max_occupancy == 1 && hands < 64 &&
+                         hands * ht <= 64 * max_packed_words);
+        packed_words = (hands * ht + 63) / 64;
 
         // Include the regular expressions that define "true multiplexing"
         if (true_multiplex) {
@@ -432,12 +548,67 @@ public class SiteswapGenerator extends Generator {
                 include.add(Pattern.compile(include_RE));
         }
 
+        /*  Combine the exclude and include expressions into one automaton */
+        /*  that we can advance a throw at a time; see FilterAutomaton.   */
+
+        filter_automaton = null;
+        if (exclude.size() > 0 || include.size() > 0) {
+            ArrayList<String> exclude_RE = new ArrayList<String>();
+            ArrayList<String> include_RE = new ArrayList<String>();
+            for (i = 0; i < exclude.size(); i++)
+                exclude_RE.add(exclude.get(i).pattern());
+            for (i = 0; i < include.size(); i++)
+                include_RE.add(include.get(i).pattern());
+            filter_automaton = FilterAutomaton.compile(exclude_RE, include_RE);
+        }
+
+        allocate_workspace();
+    }
+
+    /*  Allocate the scratch arrays used during the search.  Everything */
+    /*  here is written to by gen_patterns() and gen_loops(), so each   */
+    /*  parallel worker gets its own copy.                              */
+
+    protected void allocate_workspace() {
+        output = new char[lhigh * CHARS_PER_THROW];
+        outputpos = 0;
+
+        pattern_state = new int[lhigh+1][hands][ground_state_length];   // last index not ht because of find_start_end()
+
+        pattern_holes = new int[lhigh][hands][ht];
+
+        pattern_throw_to = new int[slot_size][hands][max_occupancy];// first index not l because of find_start_end()
+        pattern_throw_value = new int[slot_size][hands][max_occupancy];
+
+        if (mp_filter != 0)         /* allocate space for filter variables */
+            pattern_filter = new int[lhigh+1][hands][slot_size][3];
+
+        pattern_throwcount = new int[lhigh][hands];
+
+        if (packed_states) {
+            pattern_packed = new long[lhigh+1][packed_words];
+            pattern_vertex = new int[lhigh+1];
+        }
+
+        if ((fullflag == 0) && (rotflag == 0))
+            loop_start = new int[lhigh / rhythm_period + 1];
+
+        if (filter_automaton != null) {
+            pattern_match = new int[lhigh+1];
+            pattern_match[0] = filter_automaton.start();
+        }
+
+        if (jugglers > 1) {       /* passing communication delay variables */
+            scratch1 = new int[hands];
+            scratch2 = new int[hands];
+        }
+
         if (connected_patterns)
             connections = new boolean[jugglers];
 
         if ((jugglers > 1) && !juggler_permutations) {
-            perm_scratch1 = new boolean[lhigh];
-            perm_scratch2 = new boolean[lhigh];
+            perm_score1 = new int[lhigh];
+            perm_score2 = new int[lhigh];
         }
     }
 
@@ -493,21 +664,51 @@ public class SiteswapGenerator extends Generator {
 
         this.loop_counter = 0;
 
-        int num = 0;
-        for (l = llow; l <= lhigh; l += rhythm_period)
-            num += gen_patterns(0, 0, 0, 0);
+        state_graph = null;
+        if (packed_states && SiteswapStateGraph.isSupported(hands, ht, max_occupancy)
+                    && (SiteswapStateGraph.estimateStates(hands, n, ht, rhythm_repunit, rhythm_period)
+                            <= max_graph_states)) {
+            try {
+                state_graph = SiteswapStateGraph.getGraph(hands, n, ht, rhythm_repunit, rhythm_period);
+            } catch (JuggleExceptionUser jeu) {
+                // graph too large; find throws as we go
+            }
+        }
+
+        long num = -1;
+        if (can_count_patterns())
+            num = count_patterns();     // -1 if the state graph is too large
+
+        if (num < 0) {
+            num = 0;
+            if (threads > 0)
+                num = run_parallel();
+            else if (checkpoint_file != null)
+                num = run_checkpointed();
+            else {
+                for (l = llow; l <= lhigh; l += rhythm_period) {
+                    start_count = 0;
+                    num += gen_patterns(0, 0, 0, 0);
+                }
+            }
+        }
+
+        if (checkpoint_file != null)
+            num += resume_count();      // report the total for the search
 
-        if (numflag != 0) {
+        if ((numflag != 0) && (shards > 0))
+            target.setStatus(ShardMerger.count_marker + num);
+        else if (numflag != 0) {
             if (num == 1)
                 target.setStatus(guistrings.getString("Generator_patterns_1"));
             else {
                 String template = guistrings.getString("Generator_patterns_ne1");
-                Object[] arguments = { new Integer(num) };
+                Object[] arguments = { Long.valueOf(num) };
                 target.setStatus(MessageFormat.format(template, arguments));
             }
         }
 
-        return num;
+        return (int)Math.min(num, Integer.MAX_VALUE);
     }
 
     // Now the protected methods
@@ -679,8 +880,13 @@ public class SiteswapGenerator extends Generator {
     protected boolean valid_throw(int pos) {
         int i, j, k, balls_left, balls_thrown;
 
-        // test pattern in progress against all exclusions
-        for (i = 0; i < exclude.size(); i++) {
+        // test pattern in progress against all exclusions, and see if it
+        // can still satisfy all the inclusions
+        if (filter_automaton != null) {
+            if (filter_automaton.isExcluded(pattern_match[pos + 1]) ||
+                        !filter_automaton.isIncludePossible(pattern_match[pos + 1]))
+                return false;
+        } else for (i = 0; i < exclude.size(); i++) {
             Pattern regex = exclude.get(i);
             /*System.out.println("test for string " + (new String(output, 0, outputpos)) + " = " +
                                regex.matcher(new String(output, 0, outputpos)).matches());*/
@@ -713,7 +919,7 @@ public class SiteswapGenerator extends Generator {
             for (balls_thrown = 0, i = 0; i < hands; i++) {
                 if (pattern_rhythm[pos][i][0] != 0) {
                     balls_thrown++;
-                    if ((pattern_state[pos][i][0] != 1) && (person_number[i] != leader_person))
+                    if ((get_state(pos, i, 0) != 1) && (person_number[i] != leader_person))
                         return false;
                 }
             }
@@ -734,7 +940,7 @@ public class SiteswapGenerator extends Generator {
                 return false;       /* this shouldn't happen, but die anyway */
 
             for (i = 0; i < hands; i++) {
-                if ((pattern_state[pos][i][0] != 0) &&
+                if ((get_state(pos, i, 0) != 0) &&
                             (person_number[i] != leader_person)) {
                     for (j = 0, k = 1; (j < balls_thrown) && (k != 0); j++)
                         if ((scratch1[j] == pattern_throw_to[pos][i][0]) &&
@@ -751,10 +957,13 @@ public class SiteswapGenerator extends Generator {
 
 
     protected boolean valid_pattern() {
-        int i, j, k, m, p;
+        int i, j, k, m;
 
         // test pattern in progress against all inclusions
-        for (i = 0; i < include.size(); i++) {
+        if (filter_automaton != null) {
+            if (!filter_automaton.isIncluded(pattern_match[l]))
+                return false;
+        } else for (i = 0; i < include.size(); i++) {
             Pattern regex = include.get(i);
             if (!regex.matcher(new String(output, 0, outputpos)).matches())
                 return false;
@@ -773,14 +982,8 @@ public class SiteswapGenerator extends Generator {
         // Added 12/4/2002
         // Is the pattern composite?  If so, ensure we only print one rotation of it
         if (fullflag == 0 && rotflag == 0) {
-            for (i = 1; i < l; i++) {
-                if ((i % rhythm_period) == 0) {     // can we compare states?
-                    if (compare_states(pattern_state[0], pattern_state[i]) == 0) {
-                        if (compare_rotations(0, i) < 0)
-                            return false;
-                    }
-                }
-            }
+            if (!is_greatest_rotation())
+                return false;
         }
 
         // test whether passing pattern is connected
@@ -818,66 +1021,22 @@ public class SiteswapGenerator extends Generator {
         // This algorithm is not guaranteed to eliminate all permuted duplicates, but will do so in the
         // vast majority of cases.
         if ((jugglers > 1) && !juggler_permutations) {
-            for (m = 1; m <= (jugglers-1); m++) {
-                // compare juggler m against juggler (m+1)
-                for (i = 0; i < l; i++)
-                    perm_scratch1[i] = perm_scratch2[i] = false;
-
-                for (p = 0; p < l; p++) {
-                    int scorem = -1, scoremp1 = -1, maxm = 0, maxmp1 = 0;
-
-                    for (i = 0; i < l; i++) {
-                        if (!perm_scratch1[i]) {
-                            int scoretemp = 0;
-
-                            for (j = 0; j < hands; j++) {
-                                if (person_number[j] != m)
-                                    continue;
-                                for (k = 0; (k < max_occupancy) && (pattern_throw_value[i][j][k] > 0); k++) {
-                                    scoretemp += 4 * pattern_throw_value[i][j][k] * (2*max_occupancy) * (2*max_occupancy);
-                                    if (pattern_throw_to[i][j][k] != j) {
-                                        scoretemp += 2 * (2*max_occupancy);
-                                        if (person_number[pattern_throw_to[i][j][k]] != m)
-                                            scoretemp += 1;
-                                    }
-                                }
-                            }
-
-                            if (scoretemp > scorem) {
-                                scorem = scoretemp;
-                                maxm = i;
-                            }
-                        }
-                        if (!perm_scratch2[i]) {
-                            int scoretemp = 0;
-
-                            for (j = 0; j < hands; j++) {
-                                if (person_number[j] != (m+1))
-                                    continue;
-                                for (k = 0; (k < max_occupancy) && (pattern_throw_value[i][j][k] > 0); k++) {
-                                    scoretemp += 4 * pattern_throw_value[i][j][k] * (2*max_occupancy) * (2*max_occupancy);
-                                    if (pattern_throw_to[i][j][k] != j) {
-                                        scoretemp += 2 * (2*max_occupancy);
-                                        if (person_number[pattern_throw_to[i][j][k]] != (m+1))
-                                            scoretemp += 1;
-                                    }
-                                }
-                            }
+            int[] scores1 = perm_score1, scores2 = perm_score2;
 
-                            if (scoretemp > scoremp1) {
-                                scoremp1 = scoretemp;
-                                maxmp1 = i;
-                            }
-                        }
-                    }
-
-                    if (scoremp1 > scorem)
+            juggler_scores(1, scores1);
+            for (m = 1; m <= (jugglers-1); m++) {
+                // compare juggler m against juggler (m+1), highest scores first
+                juggler_scores(m + 1, scores2);
+                for (i = l - 1; i >= 0; i--) {
+                    if (scores2[i] > scores1[i])
                         return false;
-                    if (scoremp1 < scorem)
+                    if (scores2[i] < scores1[i])
                         break;      // go to the next pair of jugglers
-
-                    perm_scratch1[maxm] = perm_scratch2[maxmp1] = true;
                 }
+
+                int[] temp = scores1;
+                scores1 = scores2;
+                scores2 = temp;
             }
         }
 
@@ -885,6 +1044,64 @@ public class SiteswapGenerator extends Generator {
     }
 
 
+    // Added 10/2026
+    // Score each beat of the pattern for juggler `person`, and sort the scores into
+    // increasing order. Two jugglers are compared by their sorted scores, highest first.
+    protected void juggler_scores(int person, int[] scores) {
+        for (int i = 0; i < l; i++) {
+            int score = 0;
+
+            for (int j = 0; j < hands; j++) {
+                if (person_number[j] != person)
+                    continue;
+                for (int k = 0; (k < max_occupancy) && (pattern_throw_value[i][j][k] > 0); k++) {
+                    score += 4 * pattern_throw_value[i][j][k] * (2*max_occupancy) * (2*max_occupancy);
+                    if (pattern_throw_to[i][j][k] != j) {
+                        score += 2 * (2*max_occupancy);
+                        if (person_number[pattern_throw_to[i][j][k]] != person)
+                            score += 1;
+                    }
+                }
+            }
+            scores[i] = score;
+        }
+        Arrays.sort(scores, 0, l);
+    }
+
+    // Added 10/2026
+    // Is the pattern the greatest of its rotations, viewing it as a cyclic sequence of
+    // loops through the starting state that are compared with compare_loops()? This
+    // gives the same answer as calling compare_rotations(0, i) for the start i of each
+    // loop, but finds the greatest rotation with the two-pointer method (as for the
+    // least rotation of a string), so the number of loop comparisons is linear in the
+    // number of loops rather than quadratic.
+    protected boolean is_greatest_rotation() {
+        int numloops = 0;
+        for (int i = 0; i < l; i += rhythm_period) {
+            if ((i == 0) || (compare_pattern_states(0, i) == 0))
+                loop_start[numloops++] = i;
+        }
+        if (numloops == 1)
+            return true;
+
+        int i = 0, j = 1, k = 0;
+        while ((i < numloops) && (j < numloops) && (k < numloops)) {
+            int res = compare_loops(loop_start[(i+k)%numloops], loop_start[(j+k)%numloops]);
+            if (res == 0) {
+                k++;
+                continue;
+            }
+            if (res < 0)
+                i += k + 1;     // rotations i..i+k can't be the greatest
+            else
+                j += k + 1;
+            if (i == j)
+                j++;
+            k = 0;
+        }
+        return (Math.min(i, j) == 0);
+    }
+
     // Added 12/9/2002
     // This method assumes the throws are comparable, i.e., that pos1 is congruent to pos2
     // mod rhythm_period
@@ -898,7 +1115,7 @@ public class SiteswapGenerator extends Generator {
 
             i++;
             for (; i < l; i++) {
-                if (compare_states(pattern_state[pos1], pattern_state[(pos1+i)%l]) == 0)
+                if (compare_pattern_states(pos1, (pos1+i)%l) == 0)
                     break;
             }
         }
@@ -907,7 +1124,7 @@ public class SiteswapGenerator extends Generator {
 
     // Added 12/4/2002
     protected int compare_loops(int pos1, int pos2) {
-        int[][] startstate = pattern_state[pos1];
+        int startpos = pos1;
         int result = 0;
         int i = 0;
 
@@ -922,8 +1139,8 @@ public class SiteswapGenerator extends Generator {
                 result = compare_throws(pos1, pos2);
 
             if ((i % rhythm_period) == 0) {
-                int cs1 = compare_states(pattern_state[pos1+1], startstate);
-                int cs2 = compare_states(pattern_state[pos2+1], startstate);
+                int cs1 = compare_pattern_states(pos1+1, startpos);
+                int cs2 = compare_pattern_states(pos2+1, startpos);
 
                 if (cs1 == 0) {
                     if (cs2 == 0)
@@ -1001,6 +1218,107 @@ public class SiteswapGenerator extends Generator {
     }
 
 
+    /*  compare_pattern_states -- compare the states at two positions in */
+    /*                            the pattern, as compare_states()       */
+    protected int compare_pattern_states(int pos1, int pos2) {
+        if (!packed_states)
+            return compare_states(pattern_state[pos1], pattern_state[pos2]);
+
+        long[] state1 = pattern_packed[pos1];
+        long[] state2 = pattern_packed[pos2];
+
+        for (int w = packed_words - 1; w >= 0; w--) {
+            if (state1[w] != state2[w])
+                return (Long.compareUnsigned(state1[w], state2[w]) > 0 ? 1 : -1);
+        }
+        return 0;
+    }
+
+
+    /*  get_state -- number of balls landing in a hand, a given number  */
+    /*               of beats after position pos in the pattern         */
+    protected int get_state(int pos, int hand, int beat) {
+        if (!packed_states)
+            return pattern_state[pos][hand][beat];
+
+        int bit = beat * hands + hand;
+        return (int)((pattern_packed[pos][bit >>> 6] >>> (bit & 63)) & 1L);
+    }
+
+
+    /*  pack_state -- fill in pattern_packed[pos] from pattern_state[pos] */
+    protected void pack_state(int pos) {
+        long[] packed = pattern_packed[pos];
+
+        for (int w = 0; w < packed_words; w++)
+            packed[w] = 0L;
+
+        for (int j = 0; j < ht; j++) {
+            for (int i = 0; i < hands; i++) {
+                if (pattern_state[pos][i][j] != 0) {
+                    int bit = j * hands + i;
+                    packed[bit >>> 6] |= (1L << (bit & 63));
+                }
+            }
+        }
+
+        if (state_graph != null)
+            pattern_vertex[pos] = state_graph.getVertex(packed[0], pos % rhythm_period);
+    }
+
+
+    /*  next_packed_state -- find pattern_packed[pos+1] from the state and */
+    /*                       throws at pos                                 */
+    protected void next_packed_state(int pos) {
+        long[] state = pattern_packed[pos];
+        long[] next = pattern_packed[pos + 1];
+        int w, m;
+
+        /* shift state to the left by one beat */
+        for (w = 0; w < packed_words; w++) {
+            next[w] = (state[w] >>> hands);
+            if (w + 1 < packed_words)
+                next[w] |= (state[w + 1] << (64 - hands));
+        }
+
+        /* add on the last throw */
+        for (int j = 0; j < hands; j++) {
+            if ((m = pattern_throw_value[pos][j][0]) != 0) {
+                int bit = (m - 1) * hands + pattern_throw_to[pos][j][0];
+                next[bit >>> 6] |= (1L << (bit & 63));
+            }
+        }
+
+        if (state_graph != null)
+            pattern_vertex[pos + 1] = state_graph.getVertex(next[0], (pos + 1) % rhythm_period);
+    }
+
+
+    /*  valid_packed_state -- checks if the state at pos is valid for a  */
+    /*                        period-L pattern: position X must be       */
+    /*                        filled if position X+L is                  */
+    protected boolean valid_packed_state(int pos) {
+        long[] state = pattern_packed[pos];
+        int w;
+
+        if (l >= ht)
+            return true;
+
+        int shift = l * hands;
+        int wshift = (shift >>> 6);
+        int bshift = (shift & 63);
+
+        for (w = 0; w + wshift < packed_words; w++) {
+            long later = (state[w + wshift] >>> bshift);
+            if ((bshift != 0) && (w + wshift + 1 < packed_words))
+                later |= (state[w + wshift + 1] << (64 - bshift));
+            if ((later & ~state[w]) != 0L)
+                return false;
+        }
+        return true;
+    }
+
+
 
     /* returns number as single character */
     protected char convert_number(int value) {
@@ -1223,25 +1541,49 @@ public class SiteswapGenerator extends Generator {
         /* int min_throw;        /* lowest we can throw this time                  */
         /* int min_hand;         /* lowest hand we can throw to this time          */
         /* unsigned int num;     /* number of valid patterns counted               */
-        int i, j, k, m, o;
+        int i, j, k, m;
         int outputpos_temp = outputpos;
 
-        if (max_time > 0.0) {
-            if (loop_counter++ > loop_counter_max) {
-                loop_counter = 0;
-                if ((System.currentTimeMillis() - start_time_millis) > max_time_millis) {
-                    String template = guistrings.getString("Generator_timeout");
-                    Object[] arguments = { new Integer((int)max_time) };
-                    throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
-                }
+        if (loop_counter++ > loop_counter_max) {
+            loop_counter = 0;
+            if ((max_time > 0.0) &&
+                        ((System.currentTimeMillis() - start_time_millis) > max_time_millis)) {
+                String template = guistrings.getString("Generator_timeout");
+                Object[] arguments = { Integer.valueOf((int)max_time) };
+                save_frontier(pos, throws_made, false, num);
+                throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
+            }
+            if ((abort_flag != null) && abort_flag.get())
+                throw new JuggleExceptionDone();    // parallel search stopped
+            if (Thread.currentThread().isInterrupted()) {
+                save_frontier(pos, throws_made, false, num);
+                throw new JuggleExceptionDone();    // e.g., GeneratorIterator closed
             }
+            if ((checkpoint_file != null) && ((System.currentTimeMillis() -
+                        last_checkpoint_millis) > checkpoint_millis)) {
+                save_frontier(pos, throws_made, false, num);
+                write_checkpoint();
+            }
+        }
+
+        if (replaying && (replay_index == resume.path_length)) {
+            /* reached the point where the checkpointed search stopped */
+            replaying = false;
+            if (resume.explored)
+                return num;
         }
 
         if (pos == l) {
-            if ((compare_states(pattern_state[0], pattern_state[l]) == 0) && valid_pattern()) {
+            if ((compare_pattern_states(0, l) == 0) && valid_pattern()) {
+                if (unit_pending && (numflag != 2)) {
+                    target.setStatus(ShardMerger.unit_marker + l + " " + (start_count - 1) +
+                            " " + first_beat_key(pattern_throw_value[0], pattern_throw_to[0]));
+                    unit_pending = false;
+                }
                 if (numflag != 2)
                     print_pattern();
                 if (num++ == max_num) {
+                    save_frontier(pos, throws_made, true, num);
                     String template = guistrings.getString("Generator_spacelimit");
                     Object[] arguments = { new Integer(max_num) };
                     throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
@@ -1251,13 +1593,16 @@ public class SiteswapGenerator extends Generator {
             return num;
         }
 
+        if ((throws_made == 0) && (state_graph != null) && (first_throws == null))
+            return gen_edges(pos, num);
+
         if (throws_made == 0)
             for (i = 0; i < hands; i++) {
-                pattern_throwcount[pos][i] = pattern_state[pos][i][0];
+                pattern_throwcount[pos][i] = get_state(pos, i, 0);
                 for (j = 0; j < ht; j++) {
                     pattern_holes[pos][i][j] = pattern_rhythm[pos + 1][i][j];
                     if (j != (ht - 1))
-                        pattern_holes[pos][i][j] -= pattern_state[pos][i][j + 1];
+                        pattern_holes[pos][i][j] -= get_state(pos, i, j + 1);
                 }
                 for (j = 0; j < max_occupancy; j++) {
                     pattern_throw_to[pos][i][j] = i;      /* clear throw matrix */
@@ -1269,14 +1614,92 @@ public class SiteswapGenerator extends Generator {
             ;
 
         if (i == hands) {  /* done with current slot, move to next */
-            outputpos = print_throw(output, outputpos, pattern_throw_value[pos],
-                            pattern_throw_to[pos], pattern_rhythm[pos]);
-
-            if (!valid_throw(pos)) {              /* is the throw ok? */
-                outputpos = outputpos_temp;
+            if ((pos == 0) && (first_throws != null)) {
+                /* collecting first throws for parallel search */
+                int[][][] ft = new int[2][hands][];
+                for (j = 0; j < hands; j++) {
+                    ft[0][j] = pattern_throw_value[0][j].clone();
+                    ft[1][j] = pattern_throw_to[0][j].clone();
+                }
+                first_throws.add(ft);
                 return num;
             }
 
+            num = next_slot(pos, -1, num);
+        } else {
+            m = --pattern_throwcount[pos][i];     /* record throw */
+            k = min_hand;
+
+            for (j = min_throw; j <= ht; j++) {
+                for ( ; k < hands; k++) {
+                    if (pattern_holes[pos][k][j - 1] != 0) {/*can we throw to position?*/
+                        if (replaying && !follow_resume_path(j, k))
+                            continue;   /* searched before the checkpoint */
+                        pattern_holes[pos][k][j - 1]--;
+                        pattern_throw_to[pos][i][m] = k;
+                        pattern_throw_value[pos][i][m] = j;
+                        if (m != 0)
+                            num = gen_loops(pos, throws_made + 1, j, k, num);
+                        else
+                            num = gen_loops(pos, throws_made + 1, 1, 0, num);
+                        pattern_holes[pos][k][j - 1]++;
+                        replaying = false;
+                    }
+                }
+                k = 0;
+            }
+            pattern_throwcount[pos][i]++;
+        }
+
+        outputpos = outputpos_temp;
+        return num;
+    }
+
+
+    /*  next_slot -- called when all the throws at pos are chosen.  Checks  */
+    /*               the throws and the resulting state, then continues   */
+    /*               on to the next slot.  edge is the state graph edge   */
+    /*               for the throws, if known (-1 otherwise).             */
+
+    protected int next_slot(int pos, int edge, int num) throws JuggleExceptionUser {
+        int j, k, m, o;
+        int outputpos_temp = outputpos;
+
+        if ((shards > 0) && (pos == 0)) {   /* is this part of the search ours? */
+            if (shard_of(l, start_count - 1, first_beat_key(pattern_throw_value[0],
+                        pattern_throw_to[0])) != shard)
+                return num;
+            unit_pending = true;
+        }
+
+        outputpos = print_throw(output, outputpos, pattern_throw_value[pos],
+                        pattern_throw_to[pos], pattern_rhythm[pos]);
+
+        if (filter_automaton != null) {       /* advance filter over new throws */
+            o = pattern_match[pos];
+            for (j = outputpos_temp; j < outputpos; j++)
+                o = filter_automaton.step(o, output[j]);
+            pattern_match[pos + 1] = o;
+        }
+
+        if (!valid_throw(pos)) {              /* is the throw ok? */
+            outputpos = outputpos_temp;
+            return num;
+        }
+
+        if (packed_states) {
+            /* only pattern_state[0] is kept up to date in this case */
+            if (edge >= 0) {
+                pattern_vertex[pos + 1] = state_graph.getEdgeTarget(edge);
+                pattern_packed[pos + 1][0] = state_graph.getState(pattern_vertex[pos + 1]);
+            } else
+                next_packed_state(pos);
+
+            if (!valid_packed_state(pos + 1)) {
+                outputpos = outputpos_temp;
+                return num;         /* die (invalid state for this L) */
+            }
+        } else {
             /* first calculate the next state in ptrn, given last throw */
             for (j = 0; j < hands; j++)      /* shift state to the left */
                 for (k = 0; k < ht; k++)
@@ -1302,101 +1725,101 @@ public class SiteswapGenerator extends Generator {
                     }
                 }
             }
-            /* end of new section */
+        }
+        /* end of new section */
 
-            if (((pos + 1) % rhythm_period) == 0) {
-                /* can we compare states? (rhythms must be same) */
-                j = compare_states(pattern_state[0], pattern_state[pos + 1]);
-                if ((fullflag != 0) && (pos != (l - 1)) && (j == 0))  /* intersection */ {
-                    outputpos = outputpos_temp;
-                    return num;
-                }
-                if ((rotflag == 0) && (j == 1)) { /* prevents rotations from being printed */
-                    outputpos = outputpos_temp;
-                    return num;
-                }
+        if (((pos + 1) % rhythm_period) == 0) {
+            /* can we compare states? (rhythms must be same) */
+            j = compare_pattern_states(0, pos + 1);
+            if ((fullflag != 0) && (pos != (l - 1)) && (j == 0))  /* intersection */ {
+                outputpos = outputpos_temp;
+                return num;
             }
-
-            if (fullflag == 2) {            /* list only simple loops? */
-                for (j = 1; j <= pos; j++)
-                    if (((pos + 1 - j) % rhythm_period) == 0) {
-                        if (compare_states(pattern_state[j], pattern_state[pos + 1]) == 0) {
-                            outputpos = outputpos_temp;
-                            return num;
-                        }
-                    }
+            if ((rotflag == 0) && (j == 1)) { /* prevents rotations from being printed */
+                outputpos = outputpos_temp;
+                return num;
             }
+        }
 
-            /*  Now do the multiplexing filter.  This ensures that,  */
-            /*  other than holds, objects from only one source are   */
-            /*  landing in any given hand (for example, a cluster of */
-            /*  3's).  The implementation is a little complicated,   */
-            /*  since I want to cut off the recursion as quickly as  */
-            /*  possible to get speed on big searches.  This         */
-            /*  precludes simply generating all patterns and then    */
-            /*  throwing out the unwanted ones.                      */
-
-            if (mp_filter != 0) {
-                for (j = 0; j < hands; j++) {    /* shift filter frame to left */
-                    for (k = 0; k < (slot_size - 1); k++) {
-                        pattern_filter[pos + 1][j][k][TYPE] =
-                        pattern_filter[pos][j][k + 1][TYPE];
-                        pattern_filter[pos + 1][j][k][FROM] =
-                            pattern_filter[pos][j][k + 1][FROM];
-                        pattern_filter[pos + 1][j][k][VALUE] =
-                            pattern_filter[pos][j][k + 1][VALUE];
-                    }
-                    pattern_filter[pos + 1][j][slot_size - 1][TYPE] = MP_EMPTY;
-                    /* empty slots shift in */
-
-                    if (mp_addthrow( pattern_filter[pos + 1][j][l - 1],
-                                        j, pattern_filter[pos][j][0][TYPE],
-                                        pattern_filter[pos][j][0][VALUE],
-                                        pattern_filter[pos][j][0][FROM]) != 0) {
+        if (fullflag == 2) {            /* list only simple loops? */
+            for (j = 1; j <= pos; j++)
+                if (((pos + 1 - j) % rhythm_period) == 0) {
+                    if (compare_pattern_states(j, pos + 1) == 0) {
                         outputpos = outputpos_temp;
                         return num;
                     }
                 }
+        }
 
-                for (j = 0; j < hands; j++)           /* add on last throw */
-                    for (k = 0; (k < max_occupancy) &&
-                                ((m = pattern_throw_value[pos][j][k]) != 0); k++)
-                        if (mp_addthrow(
-                                        pattern_filter[pos + 1][pattern_throw_to[pos][j][k]][m - 1],
-                                        pattern_throw_to[pos][j][k], MP_THROW, m, j) != 0) {
-                            outputpos = outputpos_temp;
-                            return num;        /* problem, so end recursion */
-                        }
-            }
-
-            num = gen_loops(pos + 1, 0, 1, 0, num);       /* go to next slot */
-        } else {
-            m = --pattern_throwcount[pos][i];     /* record throw */
-            k = min_hand;
+        /*  Now do the multiplexing filter.  This ensures that,  */
+        /*  other than holds, objects from only one source are   */
+        /*  landing in any given hand (for example, a cluster of */
+        /*  3's).  The implementation is a little complicated,   */
+        /*  since I want to cut off the recursion as quickly as  */
+        /*  possible to get speed on big searches.  This         */
+        /*  precludes simply generating all patterns and then    */
+        /*  throwing out the unwanted ones.                      */
+
+        if (mp_filter != 0) {
+            for (j = 0; j < hands; j++) {    /* shift filter frame to left */
+                for (k = 0; k < (slot_size - 1); k++) {
+                    pattern_filter[pos + 1][j][k][TYPE] =
+                    pattern_filter[pos][j][k + 1][TYPE];
+                    pattern_filter[pos + 1][j][k][FROM] =
+                        pattern_filter[pos][j][k + 1][FROM];
+                    pattern_filter[pos + 1][j][k][VALUE] =
+                        pattern_filter[pos][j][k + 1][VALUE];
+                }
+                pattern_filter[pos + 1][j][slot_size - 1][TYPE] = MP_EMPTY;
+                /* empty slots shift in */
 
-            for (j = min_throw; j <= ht; j++) {
-                for ( ; k < hands; k++) {
-                    if (pattern_holes[pos][k][j - 1] != 0) {/*can we throw to position?*/
-                        pattern_holes[pos][k][j - 1]--;
-                        pattern_throw_to[pos][i][m] = k;
-                        pattern_throw_value[pos][i][m] = j;
-                        if (m != 0)
-                            num = gen_loops(pos, throws_made + 1, j, k, num);
-                        else
-                            num = gen_loops(pos, throws_made + 1, 1, 0, num);
-                        pattern_holes[pos][k][j - 1]++;
-                    }
+                if (mp_addthrow( pattern_filter[pos + 1][j][l - 1],
+                                    j, pattern_filter[pos][j][0][TYPE],
+                                    pattern_filter[pos][j][0][VALUE],
+                                    pattern_filter[pos][j][0][FROM]) != 0) {
+                    outputpos = outputpos_temp;
+                    return num;
                 }
-                k = 0;
             }
-            pattern_throwcount[pos][i]++;
+
+            for (j = 0; j < hands; j++)           /* add on last throw */
+                for (k = 0; (k < max_occupancy) &&
+                            ((m = pattern_throw_value[pos][j][k]) != 0); k++)
+                    if (mp_addthrow(
+                                    pattern_filter[pos + 1][pattern_throw_to[pos][j][k]][m - 1],
+                                    pattern_throw_to[pos][j][k], MP_THROW, m, j) != 0) {
+                        outputpos = outputpos_temp;
+                        return num;        /* problem, so end recursion */
+                    }
         }
 
+        num = gen_loops(pos + 1, 0, 1, 0, num);       /* go to next slot */
+
         outputpos = outputpos_temp;
         return num;
     }
 
 
+    /*  gen_edges -- like gen_loops, but takes the throws out of the current  */
+    /*               state from the precomputed state graph.                  */
+
+    protected int gen_edges(int pos, int num) throws JuggleExceptionUser {
+        int v = pattern_vertex[pos];
+
+        for (int e = state_graph.getEdgeStart(v); e < state_graph.getEdgeEnd(v); e++) {
+            if (replaying && !follow_resume_edge(pos, e))
+                continue;       /* searched before the checkpoint */
+            for (int i = 0; i < hands; i++) {
+                pattern_throw_value[pos][i][0] = state_graph.getThrowValue(e, i);
+                pattern_throw_to[pos][i][0] = state_graph.getThrowTo(e, i);
+            }
+            num = next_slot(pos, e, num);
+            replaying = false;
+        }
+        return num;
+    }
+
+
     /*  The next routine finds valid starting and ending sequences for      */
     /*  excited state patterns.  Note that these sequences are not unique.  */
     //  Rewritten on 12/31/03
@@ -1575,10 +1998,35 @@ findending2:
                         pattern_filter[0][i][j][TYPE] = MP_EMPTY; /* clear rest of slot */
             }
 
+            if ((checkpoint_file != null) || (shards > 0)) {
+                /* skip states searched before the checkpoint */
+                int index = start_count++;
+                if (resume != null && l == resume.period) {
+                    if (index < resume.start)
+                        return num;
+                    if (index == resume.start) {
+                        replaying = true;
+                        replay_index = 0;
+                    }
+                }
+            }
+
+            if (start_tasks != null) {
+                /* parallel search; save state for a worker to pick up */
+                start_tasks.add(new StartTask(this, l, start_count - 1, pattern_state[0],
+                                    (mp_filter != 0) ? pattern_filter[0] : null));
+                return num;
+            }
+
+            if (packed_states)
+                pack_state(0);
+
             if ((numflag != 2) && sequenceflag)
                 find_start_end();/* find starting and ending sequences for state */
 
-                return gen_loops(0, 0, 1, 0, num);   /* find patterns thru state */
+            num = gen_loops(0, 0, 1, 0, num);   /* find patterns thru state */
+            replaying = false;
+            return num;
         }
 
         if (balls_placed == 0) {        /* startup, clear state */
@@ -1644,9 +2092,572 @@ findending2:
     }
 
 
+    // Count-only mode (added 10/2026)
+    //
+    // When only the number of patterns is wanted (-no), and nothing but the
+    // basic composite/rotation/ground state options is in effect, we can
+    // count the patterns without listing them. Each pattern is a closed walk
+    // in the state graph, so the counts come from summing walk counts
+    // beat by beat over the graph (see SiteswapStateGraph.countLoops()).
+    // Prime patterns can't be counted this way, and neither can composite
+    // patterns without rotations, since those need the full comparison in
+    // compare_rotations().
+
+    protected boolean can_count_patterns() {
+        if (numflag != 2 || !packed_states || checkpoint_file != null || shards > 0)
+            return false;
+        if (!SiteswapStateGraph.isSupported(hands, ht, max_occupancy))
+            return false;
+        if (fullflag == 2 || (fullflag == 0 && rotflag == 0))
+            return false;
+        if (exclude.size() > 0 || include.size() > 0)
+            return false;
+        if (lameflag || connected_patterns || delaytime != 0)
+            return false;
+        if (jugglers > 1 && !juggler_permutations)
+            return false;
+        return true;
+    }
+
+    protected long count_patterns() throws JuggleExceptionUser {
+        SiteswapStateGraph graph = state_graph;
+        if (graph == null) {
+            if (SiteswapStateGraph.estimateStates(hands, n, ht, rhythm_repunit, rhythm_period)
+                        > max_graph_states)
+                return -1;
+            try {
+                graph = SiteswapStateGraph.getGraph(hands, n, ht, rhythm_repunit, rhythm_period);
+            } catch (JuggleExceptionUser jeu) {
+                return -1;      // graph too large, so enumerate instead
+            }
+        }
+
+        long ground = 0L;
+        for (int j = 0; j < ht && j < ground_state_length; j++)
+            for (int i = 0; i < hands; i++)
+                if (ground_state[i][j] != 0)
+                    ground |= (1L << (j * hands + i));
+
+        long total = 0;
+        for (l = llow; l <= lhigh; l += rhythm_period) {
+            long num = graph.countLoops(l, fullflag != 0, rotflag == 0, groundflag, ground, this);
+
+            // same limit as in gen_loops(), which applies to each period
+            if (max_num >= 0 && num > max_num)
+                throw limit_exception();
+            total += num;
+        }
+        return total;
+    }
+
+    // Stop if the time limit is up or the thread has been interrupted, as
+    // gen_loops() does. Called by SiteswapStateGraph.countLoops().
+    protected void check_stop() throws JuggleExceptionDone {
+        if ((max_time > 0.0) &&
+                    ((System.currentTimeMillis() - start_time_millis) > max_time_millis))
+            throw timeout_exception();
+        if (Thread.currentThread().isInterrupted())
+            throw new JuggleExceptionDone();
+    }
+
+
+    // Checkpointing (added 10/2026)
+    //
+    // With -ckpt the current position in the search is saved to a file every
+    // so often, and whenever the search stops early. With -resume the search
+    // follows the saved path down the search tree, skipping everything to its
+    // left, and carries on normally from the end of it.
+
+    protected int run_checkpointed() throws JuggleExceptionUser {
+        int num = 0;
+
+        if ((resume != null) && resume.finished)
+            return 0;
+
+        frontier = new GeneratorCheckpoint(search_args.toArray(new String[0]));
+        frontier.setPosition(llow, 0, 0, false);
+        frontier_saved = false;
+        replaying = false;
+        last_checkpoint_millis = System.currentTimeMillis();
+
+        try {
+            for (l = (resume == null ? llow : resume.period); l <= lhigh; l += rhythm_period) {
+                start_count = 0;
+                count_base = resume_count() + num;
+                num += gen_patterns(0, 0, 0, 0);
+            }
+        } catch (JuggleExceptionDone jed) {
+            write_checkpoint();
+            throw jed;
+        }
+
+        frontier.setFinished();
+        frontier.count = resume_count() + num;
+        frontier_saved = true;
+        write_checkpoint();
+        return num;
+    }
+
+    // number of patterns found before the resume point
+    protected long resume_count() {
+        return (resume == null ? 0 : resume.count);
+    }
+
+    // Record the current position in the search: at the start of the call
+    // to gen_loops() for (pos, throws_made). If `explored` is set then that
+    // call has done its work.
+    protected void save_frontier(int pos, int throws_made, boolean explored, int num) {
+        if ((checkpoint_file == null) || (frontier == null) || replaying)
+            return;     // if replaying, still at the resume point
+
+        frontier.ensurePathCapacity((pos + 1) * hands * max_occupancy);
+        int length = 0;
+
+        for (int p = 0; (p <= pos) && (p < l); p++) {
+            int made = 0;
+            for (int h = 0; h < hands; h++) {
+                /* throws from a hand are chosen from last to first */
+                for (int m = get_state(p, h, 0) - 1; m >= 0; m--) {
+                    if ((p == pos) && (made == throws_made))
+                        break;
+                    frontier.path_value[length] = pattern_throw_value[p][h][m];
+                    frontier.path_to[length] = pattern_throw_to[p][h][m];
+                    length++;
+                    made++;
+                }
+            }
+        }
+
+        frontier.setPosition(l, start_count - 1, length, explored);
+        frontier.count = count_base + num;
+        frontier_saved = true;
+    }
+
+    protected void write_checkpoint() throws JuggleExceptionUser {
+        if (frontier_saved || (resume == null))
+            frontier.write(checkpoint_file);
+        else
+            resume.write(checkpoint_file);  // haven't gotten past it yet
+        last_checkpoint_millis = System.currentTimeMillis();
+    }
+
+    // While replaying, decide whether to try the next throw in gen_loops().
+    // Returns false if it comes before the resume path.
+    protected boolean follow_resume_path(int value, int to) {
+        int c = resume.compareChoice(replay_index, value, to);
+        if (c < 0)
+            return false;
+        if (c == 0)
+            replay_index++;
+        else
+            replaying = false;
+        return true;
+    }
+
+    // Same as above, for a state graph edge in gen_edges().
+    protected boolean follow_resume_edge(int pos, int e) {
+        int index = replay_index;
+
+        for (int h = 0; h < hands; h++) {
+            if (get_state(pos, h, 0) == 0)
+                continue;
+            if (index == resume.path_length) {
+                replaying = false;  // resume point is partway through this beat
+                return true;
+            }
+            int c = resume.compareChoice(index++, state_graph.getThrowValue(e, h),
+                                         state_graph.getThrowTo(e, h));
+            if (c < 0)
+                return false;
+            if (c > 0) {
+                replaying = false;
+                return true;
+            }
+        }
+        replay_index = index;
+        return true;
+    }
+
+
+    // Sharding (added 10/2026)
+    //
+    // With -shard i/k the search is split into units, one for each period,
+    // starting state, and set of throws on the first beat, and each unit is
+    // assigned to one of the k shards by a hash of those. So the k shards can
+    // be run independently (on different machines, say) and together find
+    // each pattern exactly once. Each shard's output is divided up by marker
+    // lines giving the unit, so ShardMerger can put the patterns back into the
+    // order a single run would have printed them in.
+
+    // The throws on the first beat as a string, e.g. "5,0 3,1", listing each
+    // (value, destination hand) in the order gen_loops() chooses them.
+    protected String first_beat_key(int[][] value, int[][] to) {
+        StringBuilder sb = new StringBuilder();
+        for (int h = 0; h < hands; h++) {
+            for (int m = get_state(0, h, 0) - 1; m >= 0; m--) {
+                if (sb.length() > 0)
+                    sb.append(' ');
+                sb.append(value[h][m]).append(',').append(to[h][m]);
+            }
+        }
+        return sb.toString();
+    }
+
+    protected int shard_of(int l, int start, String key) {
+        return shard_of(l, start, key, shards);
+    }
+
+    protected static int shard_of(int l, int start, String key, int shards) {
+        // String.hashCode() is the same on every JVM; mix it so that similar
+        // keys are spread evenly
+        long h = (l + ":" + start + ":" + key).hashCode();
+        h *= 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 29);
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= (h >>> 32);
+        return (int)Long.remainderUnsigned(h, shards);
+    }
+
+
+    // Parallel search (added 10/2026)
+    //
+    // The search space is split into one task per (period, starting state),
+    // found by running gen_patterns() in a collecting mode. Each of these is
+    // split further into one unit per valid set of throws on the first beat.
+    // Units run on a pool of worker threads, each on its own copy of the
+    // generator's scratch arrays, and are written to the target in the order
+    // the serial search would have produced them: patterns from the earliest
+    // unwritten unit are passed on as soon as they're found, while later units
+    // buffer theirs until it's their turn. Only a limited number of units are
+    // queued or running ahead of the one being written, and each of those
+    // holds a limited number of patterns, so memory use stays bounded.
+
+    protected final static int units_per_thread = 4;        // units queued ahead
+    protected final static int max_buffered_patterns = 4096; // per unit
+
+    protected int run_parallel() throws JuggleExceptionUser {
+        ArrayList<StartTask> tasks = new ArrayList<StartTask>();
+
+        start_tasks = tasks;
+        try {
+            for (l = llow; l <= lhigh; l += rhythm_period) {
+                start_count = 0;
+                gen_patterns(0, 0, 0, 0);
+            }
+        } finally {
+            start_tasks = null;
+        }
+
+        abort_flag = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            // the pool starts units in the order they're submitted, so the
+            // unit being written is always running or finished
+            ArrayDeque<FirstThrowTask> queued = new ArrayDeque<FirstThrowTask>();
+            ArrayDeque<FirstThrowTask> units = new ArrayDeque<FirstThrowTask>();
+            int next_task = 0;
+            int total = 0, num = 0, last_l = -1;
+
+            while (true) {
+                while (queued.size() < threads * units_per_thread) {
+                    if (units.isEmpty()) {
+                        if (next_task == tasks.size())
+                            break;
+                        tasks.get(next_task++).find_units(units);
+                        continue;
+                    }
+                    FirstThrowTask unit = units.poll();
+                    queued.add(unit);
+                    pool.execute(unit);
+                }
+
+                FirstThrowTask unit = queued.poll();
+                if (unit == null)
+                    break;
+
+                // pattern limits apply to each period separately, as in
+                // the serial search
+                if (unit.parent.l != last_l) {
+                    total += num;
+                    num = 0;
+                    last_l = unit.parent.l;
+                }
+
+                boolean first = true;
+                while (true) {
+                    ArrayList<String[]> batch = unit.take(this);
+
+                    if (first && !batch.isEmpty() && unit.marker != null) {
+                        target.setStatus(unit.marker);
+                        first = false;
+                    }
+                    for (String[] pat : batch) {
+                        target.writePattern(pat[0], pat[1], pat[2]);
+                        if (num++ == max_num)
+                            throw limit_exception();
+                    }
+                    if (batch.isEmpty())
+                        break;      // unit is finished
+                }
+
+                if (numflag == 2) {
+                    if ((max_num >= 0) && (unit.count > max_num - num)) {
+                        num = max_num + 1;
+                        throw limit_exception();
+                    }
+                    num += unit.count;
+                }
+            }
+
+            return total + num;
+        } finally {
+            abort_flag.set(true);
+            pool.shutdownNow();     // wakes up any units waiting to buffer
+            abort_flag = null;
+        }
+    }
+
+    protected JuggleExceptionDone limit_exception() {
+        String template = guistrings.getString("Generator_spacelimit");
+        Object[] arguments = { Integer.valueOf(max_num) };
+        return new JuggleExceptionDone(MessageFormat.format(template, arguments));
+    }
+
+    protected JuggleExceptionDone timeout_exception() {
+        String template = guistrings.getString("Generator_timeout");
+        Object[] arguments = { Integer.valueOf((int)max_time) };
+        return new JuggleExceptionDone(MessageFormat.format(template, arguments));
+    }
+
+    // Make a copy of the generator that shares the (read-only) settings and
+    // rhythm, but has its own scratch space and output target.
+    protected SiteswapGenerator make_worker(GeneratorTarget t) {
+        SiteswapGenerator w = null;
+        try {
+            w = (SiteswapGenerator)clone();
+        } catch (CloneNotSupportedException cnse) {
+            throw new RuntimeException(cnse);
+        }
+
+        w.allocate_workspace();
+        w.target = t;
+        w.max_time = -1.0;      // timeouts are handled by run_parallel()
+        w.loop_counter = 0;
+        w.start_tasks = null;
+        w.first_throws = null;
+        w.control = null;
+        w.shards = 0;           // StartTask picks the first throws to search
+        return w;
+    }
+
+    protected static int[][] copy_array(int[][] a) {
+        int[][] result = new int[a.length][];
+        for (int i = 0; i < a.length; i++)
+            result[i] = a[i].clone();
+        return result;
+    }
+
+    protected static int[][][] copy_array(int[][][] a) {
+        int[][][] result = new int[a.length][][];
+        for (int i = 0; i < a.length; i++)
+            result[i] = copy_array(a[i]);
+        return result;
+    }
+
+    // Patterns through a single starting state, for period l
+    protected static class StartTask {
+        SiteswapGenerator gen;
+        int l, start;
+        int[][] state;
+        int[][][] filter;
+
+        StartTask(SiteswapGenerator gen, int l, int start, int[][] state, int[][][] filter) {
+            this.gen = gen;
+            this.l = l;
+            this.start = start;
+            this.state = copy_array(state);
+            this.filter = (filter == null ? null : copy_array(filter));
+        }
+
+        // set up a worker at the start of the pattern
+        SiteswapGenerator start_worker(GeneratorTarget t) {
+            SiteswapGenerator w = gen.make_worker(t);
+            w.l = l;
+            for (int i = 0; i < w.hands; i++) {
+                System.arraycopy(state[i], 0, w.pattern_state[0][i], 0, state[i].length);
+                if (filter != null)
+                    w.pattern_filter[0][i] = copy_array(filter[i]);
+            }
+            if (w.packed_states)
+                w.pack_state(0);
+            return w;
+        }
+
+        // Add a unit to search for each valid set of first throws, in the
+        // order the serial search tries them
+        void find_units(ArrayDeque<FirstThrowTask> units) throws JuggleExceptionUser {
+            SiteswapGenerator w = start_worker(null);
+            w.first_throws = new ArrayList<int[][][]>();
+
+            if ((w.numflag != 2) && w.sequenceflag)
+                w.find_start_end();
+            w.gen_loops(0, 0, 1, 0, 0);
+
+            for (int[][][] ft : w.first_throws) {
+                String marker = null;
+                if (gen.shards > 0) {
+                    String key = w.first_beat_key(ft[0], ft[1]);
+                    if (shard_of(l, start, key, gen.shards) != gen.shard)
+                        continue;
+                    marker = ShardMerger.unit_marker + l + " " + start + " " + key;
+                }
+                units.add(new FirstThrowTask(this, ft, w, marker));
+            }
+        }
+    }
+
+    // Search for patterns through a starting state, with a given first beat
+    // of throws. Patterns found are buffered here until run_parallel() takes
+    // them; the search waits whenever the buffer is full.
+    protected static class FirstThrowTask extends GeneratorTarget implements Runnable {
+        StartTask parent;
+        int[][][] first_throw;
+        char[] starting_seq, ending_seq;
+        int starting_seq_length, ending_seq_length;
+        String marker;      // shard unit marker, or null
+
+        // results, guarded by this object's lock
+        ArrayList<String[]> results = new ArrayList<String[]>();
+        boolean finished;
+        RuntimeException error;
+        int count;
+
+        FirstThrowTask(StartTask parent, int[][][] first_throw, SiteswapGenerator w,
+                        String marker) {
+            this.parent = parent;
+            this.first_throw = first_throw;
+            this.starting_seq = w.starting_seq;
+            this.starting_seq_length = w.starting_seq_length;
+            this.ending_seq = w.ending_seq;
+            this.ending_seq_length = w.ending_seq_length;
+            this.marker = marker;
+        }
+
+        @Override
+        public synchronized void writePattern(String display, String notation, String anim) {
+            try {
+                while (results.size() >= max_buffered_patterns)
+                    wait();
+            } catch (InterruptedException ie) {
+                // search stopped; gen_loops() sees the interrupt and returns
+                Thread.currentThread().interrupt();
+                return;
+            }
+            results.add(new String[] { display, notation, anim });
+            notifyAll();
+        }
+
+        @Override
+        public void setStatus(String display) {}
+
+        // Return the patterns buffered so far, waiting for more if there are
+        // none. An empty list means the unit is finished.
+        synchronized ArrayList<String[]> take(SiteswapGenerator gen) throws JuggleExceptionUser {
+            try {
+                while (results.isEmpty() && !finished) {
+                    if (gen.max_time > 0.0) {
+                        long remaining = gen.max_time_millis -
+                                    (System.currentTimeMillis() - gen.start_time_millis);
+                        if (remaining <= 0)
+                            throw gen.timeout_exception();
+                        wait(remaining);
+                    } else
+                        wait();
+                }
+            } catch (InterruptedException ie) {
+                throw new JuggleExceptionDone();
+            }
+
+            if (results.isEmpty() && (error != null))
+                throw error;
+            ArrayList<String[]> batch = results;
+            results = new ArrayList<String[]>();
+            notifyAll();
+            return batch;
+        }
+
+        @Override
+        public void run() {
+            int n = 0;
+
+            try {
+                SiteswapGenerator w = parent.start_worker(this);
+                w.starting_seq = starting_seq;
+                w.starting_seq_length = starting_seq_length;
+                w.ending_seq = ending_seq;
+                w.ending_seq_length = ending_seq_length;
+
+                for (int i = 0; i < w.hands; i++) {
+                    w.pattern_throwcount[0][i] = 0;
+                    System.arraycopy(first_throw[0][i], 0, w.pattern_throw_value[0][i], 0, w.max_occupancy);
+                    System.arraycopy(first_throw[1][i], 0, w.pattern_throw_to[0][i], 0, w.max_occupancy);
+                }
+
+                try {
+                    // throws_made > 0 so the first slot isn't cleared
+                    n = w.gen_loops(0, 1, 1, 0, 0);
+                } catch (JuggleExceptionUser jeu) {
+                    // Either the pattern limit was hit (in which case this
+                    // unit alone has enough patterns to reach it) or the
+                    // search was stopped.
+                    if (w.numflag == 2 && !w.abort_flag.get())
+                        n = w.max_num + 1;
+                }
+            } catch (RuntimeException re) {
+                synchronized (this) {
+                    error = re;
+                }
+            } finally {
+                synchronized (this) {
+                    count = n;
+                    finished = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+
     // Static methods to run the generator with command line input
 
     public static void runGeneratorCLI(String[] args, GeneratorTarget target) {
+        if ((args.length > 1) && args[0].equals("-merge")) {
+            // combine the outputs of a sharded search
+            if (target == null)
+                return;
+            try {
+                ShardMerger.merge(Arrays.asList(args).subList(1, args.length), target);
+            } catch (JuggleExceptionUser jeu) {
+                System.out.println(errorstrings.getString("Error")+": "+jeu.getMessage());
+            }
+            return;
+        }
+
+        if ((args.length == 2) && args[0].equals("-resume")) {
+            // continue a search with the options saved in the checkpoint
+            try {
+                String[] saved = GeneratorCheckpoint.read(args[1]).getArgs();
+                String[] newargs = Arrays.copyOf(saved, saved.length + 2);
+                newargs[saved.length] = args[0];
+                newargs[saved.length + 1] = args[1];
+                args = newargs;
+            } catch (JuggleExceptionUser jeu) {
+                System.out.println(errorstrings.getString("Error")+": "+jeu.getMessage());
+                return;
+            }
+        }
+
         if (args.length < 3) {
             String template = guistrings.getString("Version");
             Object[] arg1 = { Constants.version };
@@ -1670,7 +2681,38 @@ findending2:
         try {
             SiteswapGenerator ssg = new SiteswapGenerator();
             ssg.initGenerator(args);
-            ssg.runGenerator(target);
+
+            if (ssg.checkpoint_file == null) {
+                ssg.runGenerator(target);
+                return;
+            }
+
+            // On Ctrl-C, stop the search at the next check so that it saves
+            // exactly where it got to
+            final Thread search = Thread.currentThread();
+            Thread hook = new Thread() {
+                @Override
+                public void run() {
+                    search.interrupt();
+                    try {
+                        search.join(10000);
+                    } catch (InterruptedException ie) {
+                    }
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            try {
+                ssg.runGenerator(target, -1, -1.0);
+            } catch (JuggleExceptionDone jed) {
+                // interrupted
+            } finally {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException ise) {
+                    // already shutting down
+                }
+            }
         } catch (Exception e) {
             System.out.println(errorstrings.getString("Error")+": "+e.getMessage());
         }
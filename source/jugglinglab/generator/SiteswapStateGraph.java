@@ -0,0 +1,382 @@
+// SiteswapStateGraph.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.ResourceBundle;
+
+import jugglinglab.util.*;
+
+
+// This class holds the complete state graph for a given number of balls,
+// maximum throw, and rhythm, for siteswaps without multiplexing.
+//
+// Each state is packed into a long in the same way as in SiteswapGenerator,
+// with bit (beat*hands + hand) set if that hand has a ball landing that many
+// beats from now. Comparing two states as unsigned longs gives the same
+// ordering as SiteswapGenerator.compare_states(). Since the rhythm can vary
+// from beat to beat, a vertex in the graph is a state together with a phase
+// (position within the rhythm period). Each edge is one beat long and
+// records the throws made on that beat.
+//
+// A graph depends only on the hands, balls, maximum throw and rhythm, so
+// recently used graphs are kept in a small cache (see getGraph()). Repeated
+// runs with different filters or periods can then skip building the graph.
+// Graphs are never modified after construction, so they can be shared
+// between threads.
+
+class SiteswapStateGraph {
+    static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
+
+    protected int hands, balls, ht, rhythm_period;
+    protected int rhythm_repunit[][];
+
+    protected int num_states;
+    protected long state[];             // packed state for each vertex
+    protected int phase[];              // rhythm phase for each vertex
+    protected ArrayList<HashMap<Long, Integer>> index;  // per phase: state -> vertex
+
+    // Edges out of vertex v are numbered edge_start[v] to edge_start[v+1]-1,
+    // in the same order that SiteswapGenerator.gen_loops() tries the throws.
+    protected int num_edges;
+    protected int edge_start[];
+    protected int edge_target[];
+    protected int throw_value[];        // [edge*hands + hand]; 0 = no throw
+    protected int throw_to[];           // [edge*hands + hand]
+
+    // largest graph we'll build
+    protected final static int max_states = 1 << 20;
+
+    // Most recently used graphs. The cache is limited both in the number of
+    // graphs and in their total (approximate) size in bytes; a graph larger
+    // than the size limit on its own isn't cached at all.
+    protected final static int cache_size = 8;
+    protected final static long cache_max_bytes = 64L << 20;
+    protected static long cache_bytes;
+    protected final static LinkedHashMap<String, SiteswapStateGraph> cache =
+        new LinkedHashMap<String, SiteswapStateGraph>(16, 0.75f, true);
+
+
+    // Returns true if a graph can be built for these settings.
+    public static boolean isSupported(int hands, int ht, int max_occupancy) {
+        return (max_occupancy == 1 && hands < 64 && hands * ht <= 64);
+    }
+
+    // Returns the number of states at phase 0 of the rhythm, as an estimate
+    // of the size of the graph.
+    public static double estimateStates(int hands, int balls, int ht, int[][] rhythm_repunit,
+                                        int rhythm_period) {
+        int cells = 0;
+        for (int i = 0; i < hands; i++)
+            for (int j = 0; j < ht; j++)
+                if (rhythm_repunit[i][j % rhythm_period] != 0)
+                    cells++;
+
+        double result = 1.0;
+        for (int i = 0; i < balls; i++)
+            result = result * (cells - i) / (i + 1);
+        return Math.max(result, 0.0);
+    }
+
+    // Returns the graph for the given settings, building it if it isn't
+    // in the cache.
+    public static synchronized SiteswapStateGraph getGraph(int hands, int balls, int ht,
+                    int[][] rhythm_repunit, int rhythm_period) throws JuggleExceptionUser {
+        StringBuffer sb = new StringBuffer();
+        sb.append(hands).append(',').append(balls).append(',').append(ht).append(',');
+        sb.append(rhythm_period);
+        for (int i = 0; i < hands; i++) {
+            sb.append(i == 0 ? ':' : '/');
+            for (int j = 0; j < rhythm_period; j++)
+                sb.append(rhythm_repunit[i][j]).append(' ');
+        }
+        String key = sb.toString();
+
+        SiteswapStateGraph graph = cache.get(key);
+        if (graph == null) {
+            graph = new SiteswapStateGraph(hands, balls, ht, rhythm_repunit, rhythm_period);
+
+            long bytes = graph.getMemorySize();
+            if (bytes <= cache_max_bytes) {
+                cache.put(key, graph);
+                cache_bytes += bytes;
+
+                // evict least recently used graphs
+                Iterator<SiteswapStateGraph> iter = cache.values().iterator();
+                while (cache.size() > cache_size || cache_bytes > cache_max_bytes) {
+                    SiteswapStateGraph eldest = iter.next();
+                    cache_bytes -= eldest.getMemorySize();
+                    iter.remove();
+                }
+            }
+        }
+        return graph;
+    }
+
+    // The rhythm_repunit entries must all be 0 or 1 (no multiplexing).
+    public SiteswapStateGraph(int hands, int balls, int ht, int[][] rhythm_repunit,
+                              int rhythm_period) throws JuggleExceptionUser {
+        this.hands = hands;
+        this.balls = balls;
+        this.ht = ht;
+        this.rhythm_repunit = rhythm_repunit;
+        this.rhythm_period = rhythm_period;
+
+        index = new ArrayList<HashMap<Long, Integer>>(rhythm_period);
+        for (int p = 0; p < rhythm_period; p++)
+            index.add(new HashMap<Long, Integer>());
+
+        state = new long[1024];
+        phase = new int[1024];
+        edge_start = new int[1025];
+        edge_target = new int[4096];
+        throw_value = new int[4096 * hands];
+        throw_to = new int[4096 * hands];
+
+        add_start_states(0, 0, 0L);
+
+        // Find edges out of each vertex in turn; this adds new vertices at
+        // the other phases of the rhythm as they're found.
+        int[] holes = new int[hands * ht];
+        int[] value = new int[hands];
+        int[] to = new int[hands];
+
+        for (int v = 0; v < num_states; v++) {
+            edge_start[v] = num_edges;
+            find_edges(v, holes, value, to);
+        }
+        edge_start[num_states] = num_edges;
+    }
+
+    public int getNumStates()           { return num_states; }
+    public int getNumEdges()            { return num_edges; }
+
+    // Rough number of bytes the graph takes up, including the state index.
+    public long getMemorySize() {
+        return 64L * state.length + (4L + 8L * hands) * edge_target.length;
+    }
+    public long getState(int v)         { return state[v]; }
+    public int getPhase(int v)          { return phase[v]; }
+    public int getEdgeStart(int v)      { return edge_start[v]; }
+    public int getEdgeEnd(int v)        { return edge_start[v + 1]; }
+    public int getEdgeTarget(int e)     { return edge_target[e]; }
+
+    public int getThrowValue(int e, int hand) {
+        return throw_value[e * hands + hand];
+    }
+
+    public int getThrowTo(int e, int hand) {
+        return throw_to[e * hands + hand];
+    }
+
+    // Returns the vertex number for a packed state at a given phase, or -1
+    // if there is no such state.
+    public int getVertex(long packed, int ph) {
+        Integer v = index.get(ph).get(packed);
+        return (v == null ? -1 : v.intValue());
+    }
+
+    // Count the closed walks of length l beats (a multiple of the rhythm
+    // period) that start and end at the same phase-0 state. This is the number
+    // of patterns SiteswapGenerator finds when there are no other filters.
+    //
+    // If no_returns is set then walks may not pass through their starting
+    // state along the way (the default, non-composite listing). If
+    // start_lowest is set then the starting state must be lower than every
+    // other state visited at phase 0, so each cycle is counted once rather
+    // than once per rotation. groundflag has the same meaning as in the
+    // generator, with ground the packed ground state. If gen is not null then
+    // its time limit is checked once per beat.
+    public long countLoops(int l, boolean no_returns, boolean start_lowest,
+                           int groundflag, long ground, SiteswapGenerator gen)
+                           throws JuggleExceptionUser {
+        long[] count = new long[num_states];
+        long[] next = new long[num_states];
+        int[] active = new int[num_states];
+        int[] next_active = new int[num_states];
+        long total = 0;
+
+        for (int s = 0; s < num_states; s++) {
+            if (phase[s] != 0)
+                continue;
+            if (groundflag == 1 && state[s] != ground)
+                continue;
+            if (groundflag == 2 && state[s] == ground)
+                continue;
+
+            int num_active = 1;
+            active[0] = s;
+            count[s] = 1;
+
+            for (int t = 1; t <= l && num_active > 0; t++) {
+                int num_next = 0;
+
+                if (gen != null)
+                    gen.check_stop();
+
+                for (int a = 0; a < num_active; a++) {
+                    int v = active[a];
+                    long c = count[v];
+                    count[v] = 0;
+
+                    for (int e = edge_start[v]; e < edge_start[v + 1]; e++) {
+                        int u = edge_target[e];
+
+                        if (t < l && phase[u] == 0) {
+                            if (no_returns && u == s)
+                                continue;
+                            if (start_lowest && Long.compareUnsigned(state[u], state[s]) < 0)
+                                continue;
+                        }
+                        if (next[u] == 0)
+                            next_active[num_next++] = u;
+                        try {
+                            next[u] = Math.addExact(next[u], c);
+                        } catch (ArithmeticException ae) {
+                            throw new JuggleExceptionUser(errorstrings.getString("Error_generator_count_overflow"));
+                        }
+                    }
+                }
+
+                long[] temp = count;
+                count = next;
+                next = temp;
+                int[] tempa = active;
+                active = next_active;
+                next_active = tempa;
+                num_active = num_next;
+            }
+
+            for (int a = 0; a < num_active; a++) {
+                int v = active[a];
+                if (v == s) {
+                    try {
+                        total = Math.addExact(total, count[v]);
+                    } catch (ArithmeticException ae) {
+                        throw new JuggleExceptionUser(errorstrings.getString("Error_generator_count_overflow"));
+                    }
+                }
+                count[v] = 0;
+            }
+        }
+
+        return total;
+    }
+
+
+    // Now the protected methods
+
+    // capacity of a given hand and beat, at a given phase of the rhythm
+    protected int capacity(int hand, int beat, int ph) {
+        return rhythm_repunit[hand][(beat + ph) % rhythm_period];
+    }
+
+    // Recursively place balls to find all phase-0 states. The cell number is
+    // beat*hands + hand, i.e., the bit number in the packed state.
+    protected void add_start_states(int balls_placed, int min_cell, long packed)
+                        throws JuggleExceptionUser {
+        if (balls_placed == balls) {
+            add_state(packed, 0);
+            return;
+        }
+
+        for (int cell = min_cell; cell < hands * ht; cell++) {
+            if (capacity(cell % hands, cell / hands, 0) != 0)
+                add_start_states(balls_placed + 1, cell + 1, packed | (1L << cell));
+        }
+    }
+
+    protected int add_state(long packed, int ph) throws JuggleExceptionUser {
+        Integer v = index.get(ph).get(packed);
+        if (v != null)
+            return v.intValue();
+
+        if (num_states == max_states)
+            throw new JuggleExceptionUser(errorstrings.getString("Error_generator_graph_too_large"));
+
+        if (num_states == state.length) {
+            state = grow(state);
+            phase = grow(phase);
+            edge_start = grow(edge_start);
+        }
+
+        state[num_states] = packed;
+        phase[num_states] = ph;
+        index.get(ph).put(packed, num_states);
+        return num_states++;
+    }
+
+    // Find the edges out of vertex v. The holes are the empty spots in the
+    // next state that can take a throw, listed in the order gen_loops() tries
+    // them: by throw value, then by destination hand.
+    protected void find_edges(int v, int[] holes, int[] value, int[] to)
+                        throws JuggleExceptionUser {
+        long shifted = (state[v] >>> hands);
+        int next_phase = (phase[v] + 1) % rhythm_period;
+        int num_holes = 0;
+
+        for (int cell = 0; cell < hands * ht; cell++) {
+            if (((shifted >>> cell) & 1L) == 0 &&
+                        capacity(cell % hands, cell / hands, next_phase) != 0)
+                holes[num_holes++] = cell;
+        }
+
+        for (int h = 0; h < hands; h++) {
+            value[h] = 0;
+            to[h] = h;
+        }
+
+        add_edges(v, 0, shifted, next_phase, holes, num_holes, value, to);
+    }
+
+    // Assign a throw to each hand with a ball, from hand number `hand` on.
+    protected void add_edges(int v, int hand, long next, int next_phase, int[] holes,
+                             int num_holes, int[] value, int[] to) throws JuggleExceptionUser {
+        while (hand < hands && ((state[v] >>> hand) & 1L) == 0)
+            hand++;
+
+        if (hand == hands) {
+            int target = add_state(next, next_phase);
+
+            if (num_edges == edge_target.length) {
+                edge_target = grow(edge_target);
+                throw_value = grow(throw_value);
+                throw_to = grow(throw_to);
+            }
+            edge_target[num_edges] = target;
+            System.arraycopy(value, 0, throw_value, num_edges * hands, hands);
+            System.arraycopy(to, 0, throw_to, num_edges * hands, hands);
+            num_edges++;
+            return;
+        }
+
+        for (int i = 0; i < num_holes; i++) {
+            int cell = holes[i];
+            if (((next >>> cell) & 1L) != 0)
+                continue;       // taken by an earlier hand
+
+            value[hand] = cell / hands + 1;
+            to[hand] = cell % hands;
+            add_edges(v, hand + 1, next | (1L << cell), next_phase, holes, num_holes, value, to);
+        }
+        value[hand] = 0;
+        to[hand] = hand;
+    }
+
+    protected static long[] grow(long[] a) {
+        long[] result = new long[2 * a.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+
+    protected static int[] grow(int[] a) {
+        int[] result = new int[2 * a.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+}
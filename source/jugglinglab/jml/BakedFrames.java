@@ -0,0 +1,173 @@
+// BakedFrames.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.jml;
+
+import jugglinglab.util.*;
+
+
+// This class holds the prop, hand and juggler positions of a pattern sampled
+// at a run of evenly spaced frame times, for the animator (see
+// JMLPattern.bake()). The tables are made from one PatternSnapshot and never
+// change afterward, so they can be read from any thread without locking.
+//
+// Frame times are generated by repeated addition, as in the animator, so
+// baked values match what the snapshot calculates at those times exactly.
+
+public class BakedFrames {
+    // largest set of tables we'll make
+    protected final static long max_bytes = 16L << 20;
+
+    protected final int numpaths, numjugglers;
+    protected final double start, interval;
+    protected final int frames;
+    protected final boolean valid;      // false if the tables couldn't be made
+
+    // sampled values, indexed by frame and then by path or juggler (and hand)
+    protected double[] time;
+    protected double[] pathx, pathy, pathz;
+    protected double[] handx, handy, handz;
+    protected double[] jugglerx, jugglery, jugglerz, jugglerangle;
+
+
+    // Sample `frames` frames starting at time `start`. If the tables would be
+    // too large, or the pattern can't be evaluated at one of the frame times,
+    // then no frames are baked.
+    protected BakedFrames(PatternSnapshot snap, double start, double interval, int frames) {
+        this.numpaths = snap.getNumberOfPaths();
+        this.numjugglers = snap.getNumberOfJugglers();
+        this.start = start;
+        this.interval = interval;
+        this.frames = frames;
+        this.valid = bake(snap);
+    }
+
+    public double getStart()                { return start; }
+    public double getInterval()             { return interval; }
+    public int getNumberOfFrames()          { return frames; }
+
+    // Returns true if these are the tables for the given frames.
+    public boolean matches(double start, double interval, int frames) {
+        return (start == this.start && interval == this.interval && frames == this.frames);
+    }
+
+    // Returns the frame number for a given time, or -1 if the time isn't
+    // baked.
+    public int getFrame(double t) {
+        if (!valid)
+            return -1;
+
+        double f = (t - start) / interval + 0.5;
+        if (f < 0.0 || f >= frames)
+            return -1;
+        int frame = (int)f;
+        return (time[frame] == t ? frame : -1);
+    }
+
+    public void getPathCoordinate(int frame, int path, Coordinate newPosition) {
+        int i = frame * numpaths + path - 1;
+        newPosition.setCoordinate(pathx[i], pathy[i], pathz[i]);
+    }
+
+    public void getHandCoordinate(int frame, int juggler, int hand, Coordinate newPosition) {
+        int i = 2 * (frame * numjugglers + juggler - 1) + (hand == HandLink.LEFT_HAND ? 0 : 1);
+        newPosition.setCoordinate(handx[i], handy[i], handz[i]);
+    }
+
+    public void getJugglerPosition(int frame, int juggler, Coordinate newPosition) {
+        int i = frame * numjugglers + juggler - 1;
+        newPosition.setCoordinate(jugglerx[i], jugglery[i], jugglerz[i]);
+    }
+
+    public double getJugglerAngle(int frame, int juggler) {
+        return jugglerangle[frame * numjugglers + juggler - 1];
+    }
+
+    public void getJugglerTransform(int frame, int juggler, JugglerTransform result) {
+        getJugglerPosition(frame, juggler, result.origin);
+        result.setAngle(getJugglerAngle(frame, juggler));
+    }
+
+    // Fill in the tables; returns false if they can't be made.
+    protected boolean bake(PatternSnapshot snap) {
+        long values = 1L + 3L * numpaths + 10L * numjugglers;
+        if (frames <= 0 || 8L * values * frames > max_bytes)
+            return false;
+
+        double[] t = new double[frames];
+        double[] px = new double[frames * numpaths];
+        double[] py = new double[frames * numpaths];
+        double[] pz = new double[frames * numpaths];
+        double[] hx = new double[2 * frames * numjugglers];
+        double[] hy = new double[2 * frames * numjugglers];
+        double[] hz = new double[2 * frames * numjugglers];
+        double[] jx = new double[frames * numjugglers];
+        double[] jy = new double[frames * numjugglers];
+        double[] jz = new double[frames * numjugglers];
+        double[] ja = new double[frames * numjugglers];
+
+        double tm = start;
+        for (int frame = 0; frame < frames; frame++) {
+            t[frame] = tm;
+            tm += interval;
+        }
+
+        // paths and hands are evaluated at all the frame times at once
+        double[] x = new double[frames];
+        double[] y = new double[frames];
+        double[] z = new double[frames];
+        Coordinate c = new Coordinate();
+
+        try {
+            for (int path = 1; path <= numpaths; path++) {
+                snap.getPathCoordinates(path, t, 0, frames, x, y, z);
+                for (int frame = 0; frame < frames; frame++) {
+                    int i = frame * numpaths + path - 1;
+                    px[i] = x[frame];
+                    py[i] = y[frame];
+                    pz[i] = z[frame];
+                }
+            }
+
+            for (int juggler = 1; juggler <= numjugglers; juggler++) {
+                for (int h = 0; h < 2; h++) {
+                    snap.getHandCoordinates(juggler, (h == 0 ? HandLink.LEFT_HAND :
+                                            HandLink.RIGHT_HAND), t, 0, frames, x, y, z);
+                    for (int frame = 0; frame < frames; frame++) {
+                        int i = 2 * (frame * numjugglers + juggler - 1) + h;
+                        hx[i] = x[frame];
+                        hy[i] = y[frame];
+                        hz[i] = z[frame];
+                    }
+                }
+            }
+        } catch (JuggleExceptionInternal jei) {
+            return false;
+        }
+
+        for (int frame = 0; frame < frames; frame++) {
+            for (int juggler = 1; juggler <= numjugglers; juggler++) {
+                int i = frame * numjugglers + juggler - 1;
+                snap.getJugglerPosition(juggler, t[frame], c);
+                jx[i] = c.x;
+                jy[i] = c.y;
+                jz[i] = c.z;
+                ja[i] = snap.getJugglerAngle(juggler, t[frame], c);
+            }
+        }
+
+        time = t;
+        pathx = px;
+        pathy = py;
+        pathz = pz;
+        handx = hx;
+        handy = hy;
+        handz = hz;
+        jugglerx = jx;
+        jugglery = jy;
+        jugglerz = jz;
+        jugglerangle = ja;
+        return true;
+    }
+}
@@ -4,6 +4,8 @@
 
 package jugglinglab.jml;
 
+import java.util.ArrayList;
+
 import jugglinglab.util.*;
 
 
@@ -12,6 +14,8 @@ public class EventImages {
     protected int numjugglers, numpaths;
     protected double looptime;
     protected Permutation loopperm = null;
+    protected ArrayList<Permutation> looppowers = null;     // loopperm^k for k >= 0
+    protected ArrayList<Permutation> inversepowers = null;  // loopperm^-k
 
     protected JMLEvent ev = null;
     protected int evjuggler, evhand, evtransitions; // hand is by index (0 or 1)
@@ -81,16 +85,8 @@ public class EventImages {
             newevent.setLocalCoordinate(c1);
         }
         Permutation p = ea[currentj][currenth][currententry];
-        Permutation lp = this.loopperm;
-        int pow = currentloop;
-        if (pow < 0) {
-            lp = lp.getInverse();
-            pow = -pow;
-        }
-        while (pow > 0) {
-            p = lp.apply(p);
-            pow--;
-        }
+        if (currentloop != 0)
+            p = getLoopPower(currentloop).apply(p);
         for (int i = 0; i < this.evtransitions; i++) {
             JMLTransition tr = newevent.getTransition(i);
             int masterpath = ev.getTransition(i).getPath();
@@ -106,6 +102,21 @@ public class EventImages {
         return newevent;
     }
 
+    // Returns loopperm raised to the given power. Events are made one loop
+    // after another, so we keep the powers as we go rather than applying
+    // loopperm again |pow| times for every event.
+    protected Permutation getLoopPower(int pow) {
+        ArrayList<Permutation> powers = (pow < 0 ? inversepowers : looppowers);
+        if (powers.size() == 1)
+            powers.add(pow < 0 ? loopperm.getInverse() : loopperm);
+
+        Permutation lp = powers.get(1);
+        pow = Math.abs(pow);
+        while (powers.size() <= pow)
+            powers.add(lp.apply(powers.get(powers.size() - 1)));
+        return powers.get(pow);
+    }
+
     public void resetPosition() {
         this.currentloop = 0;
         this.currentj = evjuggler;
@@ -192,6 +203,10 @@ public class EventImages {
         this.numpaths = pat.getNumberOfPaths();
         this.looptime = pat.getLoopEndTime() - pat.getLoopStartTime();
         this.loopperm = pat.getPathPermutation();
+        this.looppowers = new ArrayList<Permutation>();
+        this.inversepowers = new ArrayList<Permutation>();
+        looppowers.add(null);           // power 0 is never needed
+        inversepowers.add(null);
 
         this.evjuggler = ev.getJuggler() - 1;
         this.evhand = HandLink.index(ev.getHand());
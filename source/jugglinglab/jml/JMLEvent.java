@@ -164,6 +164,19 @@ public class JMLEvent {
         return dup;
     }
 
+    // Copy of a master event for another pattern, without any layout
+    public JMLEvent copy() {
+        JMLEvent ev = new JMLEvent();
+        ev.setLocalCoordinate(getLocalCoordinate());
+        ev.setT(getT());
+        ev.setHand(getJuggler(), getHand());
+        ev.calcpos = calcpos;
+
+        for (int i = 0; i < getNumberOfTransitions(); i++)
+            ev.addTransition(getTransition(i).duplicate());
+        return ev;
+    }
+
     // Methods to handle JML
     public void readJML(JMLNode current, String jmlvers, int njugglers, int npaths) throws JuggleExceptionUser {
         JMLAttributes at = current.getAttributes();
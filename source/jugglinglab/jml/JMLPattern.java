@@ -6,6 +6,8 @@ package jugglinglab.jml;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.text.MessageFormat;
 import org.xml.sax.*;
 
@@ -62,9 +64,20 @@ public class JMLPattern {
     // list of HandLink objects for each juggler/hand combination
     protected ArrayList<ArrayList<ArrayList<HandLink>>> handlinks;
 
+    // read-only copy of the latest layout, which answers the queries below;
+    // replaced (never changed) by each layout
+    protected volatile PatternSnapshot snapshot;
+
     protected Curve[] jugglercurve;     // coordinates for each juggler
     protected Curve[] jugglerangle;     // angles for each juggler
 
+    // frames to sample for animation (see bake())
+    protected volatile double bakestart, bakeinterval;
+    protected volatile int bakeframes;  // 0 if no baking requested
+
+    // fewest links for which paths and hands are laid out in parallel
+    protected final static int parallel_layout_links = 2000;
+
 
     public JMLPattern() {
         laidout = false;
@@ -170,6 +183,42 @@ public class JMLPattern {
         ev.setPrevious(current);
     }
 
+    // Add a batch of events. The result is the same as calling addEvent() on
+    // each in turn, but the list is sorted once instead of being walked for
+    // every insertion.
+    public void addEvents(List<JMLEvent> events) {
+        if (events.size() == 0)
+            return;
+        setNeedsLayout(true);
+
+        ArrayList<JMLEvent> all = new ArrayList<JMLEvent>();
+        for (JMLEvent ev = eventlist; ev != null; ev = ev.getNext())
+            all.add(ev);
+        all.addAll(events);
+
+        // stable, so events with equal times stay in the order added, as
+        // with addEvent()
+        Collections.sort(all, new Comparator<JMLEvent>() {
+            @Override
+            public int compare(JMLEvent a, JMLEvent b) {
+                if (a.getT() != b.getT())
+                    return (a.getT() < b.getT() ? -1 : 1);
+                return 0;
+            }
+        });
+
+        JMLEvent prev = null;
+        for (JMLEvent ev : all) {
+            ev.setPrevious(prev);
+            if (prev == null)
+                eventlist = ev;
+            else
+                prev.setNext(ev);
+            prev = ev;
+        }
+        prev.setNext(null);
+    }
+
     public void removeEvent(JMLEvent ev) {
         setNeedsLayout(true);
         if (eventlist == ev) {
@@ -263,7 +312,9 @@ public class JMLPattern {
         this.findPositions();
         this.gotoGlobalCoordinates();
         this.buildLinkLists();
+        this.layoutPaths();
         this.layoutHandPaths();
+        this.takeSnapshot();
 
         if (jugglinglab.core.Constants.DEBUG_LAYOUT) {
             for (int i = 0; i < getNumberOfPaths(); i++) {
@@ -283,6 +334,64 @@ public class JMLPattern {
         laidout = true;
     }
 
+    // Update the layout after the position of master event `master` has been
+    // changed with setLocalCoordinate(), as when an event is dragged in the
+    // editor. Nothing else about the event (time, hand, transitions) may have
+    // changed, so the event list and links stay as they are; only the copies of
+    // the event, the throws into and out of them, and the hands involved need
+    // to be recalculated. Falls back to a full layout when there is no
+    // existing layout to update.
+    public void layoutEventPosition(JMLEvent master) throws JuggleExceptionInternal,
+                                JuggleExceptionUser {
+        if (!laidout || master == null || !master.isMaster()) {
+            layoutPattern();
+            return;
+        }
+
+        Coordinate lc = master.getLocalCoordinate();
+        Coordinate lcflip = new Coordinate(-lc.x, lc.y, lc.z);
+
+        // move the master event and all of its copies
+        boolean[][] handmoved = new boolean[getNumberOfJugglers()][2];
+        JMLEvent ev = eventlist;
+        while (ev != null) {
+            if (ev == master || ev.getMaster() == master) {
+                ev.setLocalCoordinate(ev.getHand() == master.getHand() ? lc : lcflip);
+                ev.setGlobalCoordinate(this.convertLocalToGlobal(ev.getLocalCoordinate(),
+                                                ev.getJuggler(), ev.getT()));
+                handmoved[ev.getJuggler() - 1][HandLink.index(ev.getHand())] = true;
+            }
+            ev = ev.getNext();
+        }
+
+        // recalculate the throws that start or end at a moved event; a hand
+        // at the other end of a throw must be redone too, since its velocity
+        // there comes from the throw
+        for (int i = 0; i < getNumberOfPaths(); i++) {
+            for (PathLink pl : pathlinks.get(i)) {
+                JMLEvent start = pl.getStartEvent();
+                JMLEvent end = pl.getEndEvent();
+                boolean startmoved = (start == master || start.getMaster() == master);
+                boolean endmoved = (end == master || end.getMaster() == master);
+
+                if (pl.isInHand() || !(startmoved || endmoved))
+                    continue;
+                pl.updateThrow();
+                handmoved[start.getJuggler() - 1][HandLink.index(start.getHand())] = true;
+                handmoved[end.getJuggler() - 1][HandLink.index(end.getHand())] = true;
+            }
+        }
+
+        for (int i = 0; i < getNumberOfJugglers(); i++) {
+            for (int j = 0; j < 2; j++) {
+                if (handmoved[i][j])
+                    layoutHandPath(i, j);
+            }
+        }
+
+        this.takeSnapshot();
+    }
+
     // ------------------------------------------------------------------------
     // Step 1: construct the list of events
     // Extend events in list using known symmetries
@@ -366,28 +475,41 @@ public class JMLPattern {
             needSpecialPathEvent[i] = false;
         }
 
-        // queue used to store events while building event list
-        JMLEvent[] eventqueue = new JMLEvent[numevents];
+        // queue used to store events while building event list; the next
+        // event to add is found with a heap on the queue indices
+        final JMLEvent[] eventqueue = new JMLEvent[numevents];
         for (int i = 0; i < numevents; i++)
             eventqueue[i] = ei[i].getPrevious();    // seed the queue
 
+        // events to add to the list, sorted into place at the end
+        ArrayList<JMLEvent> newevents = new ArrayList<JMLEvent>();
+
+        // latest first, ties going to the lowest index
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(numevents,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer a, Integer b) {
+                            double ta = eventqueue[a].getT();
+                            double tb = eventqueue[b].getT();
+                            if (ta != tb)
+                                return (ta > tb ? -1 : 1);
+                            return Integer.compare(a, b);
+                        }
+                    });
+        for (int i = 0; i < numevents; i++)
+            heap.add(i);
+
         // start by extending each master event backward in time
         boolean contin = false;
         do {
             // find latest event in queue
-            JMLEvent maxevent = eventqueue[0];
+            int maxnum = heap.poll();
+            JMLEvent maxevent = eventqueue[maxnum];
             double maxtime = maxevent.getT();
-            int maxnum = 0;
-            for (int i = 1; i < numevents; i++) {
-                if (eventqueue[i].getT() > maxtime) {
-                    maxevent = eventqueue[i];
-                    maxtime = maxevent.getT();
-                    maxnum = i;
-                }
-            }
 
-            this.addEvent(maxevent);                        // add to event list
+            newevents.add(maxevent);                        // add to event list
             eventqueue[maxnum] = ei[maxnum].getPrevious();  // restock queue
+            heap.add(maxnum);
 
             // now update the needs arrays, so we know when to stop
             if (maxtime < this.getLoopStartTime()) {
@@ -450,21 +572,30 @@ public class JMLPattern {
             eventqueue[i] = ei[i].getNext();
         }
 
+        // earliest first, ties going to the lowest index
+        heap = new PriorityQueue<Integer>(numevents,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer a, Integer b) {
+                            double ta = eventqueue[a].getT();
+                            double tb = eventqueue[b].getT();
+                            if (ta != tb)
+                                return (ta < tb ? -1 : 1);
+                            return Integer.compare(a, b);
+                        }
+                    });
+        for (int i = 0; i < numevents; i++)
+            heap.add(i);
+
         do {
             // find earliest event in queue
-            JMLEvent minevent = eventqueue[0];
+            int minnum = heap.poll();
+            JMLEvent minevent = eventqueue[minnum];
             double mintime = minevent.getT();
-            int minnum = 0;
-            for (int i = 1; i < numevents; i++) {
-                if (eventqueue[i].getT() < mintime) {
-                    minevent = eventqueue[i];
-                    mintime = minevent.getT();
-                    minnum = i;
-                }
-            }
 
-            this.addEvent(minevent);                    // add to event list
+            newevents.add(minevent);                    // add to event list
             eventqueue[minnum] = ei[minnum].getNext();  // restock queue
+            heap.add(minnum);
 
             // now update the needs arrays, so we know when to stop
             if (mintime > this.getLoopEndTime()) {
@@ -519,6 +650,8 @@ public class JMLPattern {
                 contin |= needSpecialPathEvent[i];
             }
         } while (contin);
+
+        addEvents(newevents);
     }
 
     // ------------------------------------------------------------------------
@@ -526,38 +659,41 @@ public class JMLPattern {
     // ------------------------------------------------------------------------
 
     public void findMasterEvents() throws JuggleExceptionInternal, JuggleExceptionUser {
-        boolean rebuildList = false;
+        // For each master event, find the earliest of it and its copies that
+        // lies within the loop, keeping the master itself in case of a tie.
+        // This takes one pass for the masters and one for the copies, keeping
+        // track of the best so far for each master.
+        IdentityHashMap<JMLEvent, JMLEvent> newmasters = new IdentityHashMap<JMLEvent, JMLEvent>();
+        double tstart = getLoopStartTime();
+        double tend = getLoopEndTime();
         JMLEvent ev = eventlist;
 
         while (ev != null) {
-            if (ev.isMaster()) {
-                JMLEvent newmaster = ev;
-                double tmaster = getLoopEndTime();
-                if (ev.getT() >= getLoopStartTime() && ev.getT() < tmaster)
-                    tmaster = ev.getT();
-
-                JMLEvent ev2 = eventlist;
-                while (ev2 != null) {
-                    if (ev2.getMaster() == ev) {
-                        if (ev2.getT() >= getLoopStartTime() && ev2.getT() < tmaster) {
-                            newmaster = ev2;
-                            tmaster = ev2.getT();
-                        }
-                    }
-                    ev2 = ev2.getNext();
-                }
+            if (ev.isMaster() && ev.getT() >= tstart && ev.getT() < tend)
+                newmasters.put(ev, ev);
+            ev = ev.getNext();
+        }
 
-                if (newmaster != ev) {
-                    rebuildList = true;
-                    ev2 = eventlist;
-                    while (ev2 != null) {
-                        if (ev2.getMaster() == ev)
-                            ev2.setMaster(newmaster);
-                        ev2 = ev2.getNext();
-                    }
-                    newmaster.setMaster(null);
-                    ev.setMaster(newmaster);
-                }
+        ev = eventlist;
+        while (ev != null) {
+            if (!ev.isMaster() && ev.getT() >= tstart && ev.getT() < tend) {
+                JMLEvent best = newmasters.get(ev.getMaster());
+                if (best == null || ev.getT() < best.getT())
+                    newmasters.put(ev.getMaster(), ev);
+            }
+            ev = ev.getNext();
+        }
+
+        boolean rebuildList = false;
+        ev = eventlist;
+
+        while (ev != null) {
+            JMLEvent master = (ev.isMaster() ? ev : ev.getMaster());
+            JMLEvent newmaster = newmasters.get(master);
+
+            if (newmaster != null && newmaster != master) {
+                rebuildList = true;
+                ev.setMaster(ev == newmaster ? null : newmaster);
             }
             ev = ev.getNext();
         }
@@ -734,7 +870,7 @@ done1:
                                     Object[] arguments = { new Integer(i+1) };
                                     throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
                                 }
-                                pl.setThrow(lasttr.getThrowType(), lasttr.getMod());
+                                pl.initThrow(lasttr.getThrowType(), lasttr.getMod());
                                 break;
                             case JMLTransition.TRANS_SOFTCATCH:
                                 if (lasttr.getType() != JMLTransition.TRANS_THROW) {
@@ -742,7 +878,7 @@ done1:
                                     Object[] arguments = { new Integer(i+1) };
                                     throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
                                 }
-                                pl.setThrow(lasttr.getThrowType(), lasttr.getMod());
+                                pl.initThrow(lasttr.getThrowType(), lasttr.getMod());
                                 break;
                         }
 
@@ -800,11 +936,11 @@ done2:
                                 if (tr.getType() == JMLTransition.TRANS_THROW) {
                                     PathLink pl = tr.getOutgoingPathLink();
                                     if (pl != null)
-                                        vr = new VelocityRef(pl.getPath(), true);
+                                        vr = new VelocityRef(pl, true);
                                 } else if (tr.getType() == JMLTransition.TRANS_SOFTCATCH) {
                                     PathLink pl = tr.getIncomingPathLink();
                                     if (pl != null)
-                                        vr = new VelocityRef(pl.getPath(), false);
+                                        vr = new VelocityRef(pl, false);
                                 }
                             }
                         }
@@ -827,106 +963,235 @@ done2:
     }
 
     // ------------------------------------------------------------------------
-    // Step 6: do a physical layout of the handlink paths
-    // (Props were physically laid out in PathLink.setThrow() in Step 5 above)
+    // Step 6: do a physical layout of the prop paths, and then the handlink
+    // paths (which take their velocities at throws and catches from the props)
+    //
+    // Once the link lists are built, each path and each hand can be laid out
+    // on its own, so for large patterns the work is split between threads.
+    // Every path and hand is calculated the same way whichever thread does
+    // it, so the results don't depend on the number of threads.
     // ------------------------------------------------------------------------
 
+    protected void layoutPaths() throws JuggleExceptionInternal {
+        int links = 0;
+        for (int i = 0; i < getNumberOfPaths(); i++)
+            links += pathlinks.get(i).size();
+
+        runLayoutTasks(false, getNumberOfPaths(), links);
+    }
+
     protected void layoutHandPaths() throws JuggleExceptionInternal {
+        int links = 0;
+        for (int i = 0; i < getNumberOfJugglers(); i++)
+            links += handlinks.get(i).get(0).size() + handlinks.get(i).get(1).size();
 
-        // go through HandLink lists, creating Path objects and calculating paths
+        // task number 2*i+j is juggler i, hand index j
+        runLayoutTasks(true, 2 * getNumberOfJugglers(), links);
+    }
 
-        for (int i = 0; i < getNumberOfJugglers(); i++) {
-            for (int j = 0; j < 2; j++) {
-                // There are two cases -- a hand has throw or softcatch events (which define
-                // hand velocities at points in time), or it does not (no velocities known).
-                // To determine the spline paths, we need to solve for hand velocity at each
-                // of its events, but this is done differently in the two cases.
-
-                if (hasVDHandJMLTransition[i][j]) {
-                    int num = 0;
-                    HandLink startlink = null;
-
-                    for (int k = 0; k < handlinks.get(i).get(j).size(); k++) {
-                        HandLink hl = handlinks.get(i).get(j).get(k);
-                        if (hl.getStartVelocityRef() != null) {
-                            // this is guaranteed to happen before the loop start time, given
-                            // the way we built the event list above
-                            startlink = hl;
-                            num = 1;
-                        }
-                        if ((hl.getEndVelocityRef() != null) && (startlink != null)) {
-                            Coordinate[] pos = new Coordinate[num+1];
-                            double[] times = new double[num+1];
-                            Curve hp = new SplineCurve();
-
-                            for (int l = 0; l < num; l++) {
-                                HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
-                                pos[l] = hl2.getStartEvent().getGlobalCoordinate();
-                                times[l] = hl2.getStartEvent().getT();
-                                hl2.setHandCurve(hp);
-                            }
-                            pos[num] = hl.getEndEvent().getGlobalCoordinate();
-                            times[num] = hl.getEndEvent().getT();
-                            Coordinate startvel = startlink.getStartVelocityRef().getVelocity();
-                            Coordinate endvel = hl.getEndVelocityRef().getVelocity();
-                            hp.setCurve(pos, times, startvel, endvel);
-                            hp.calcCurve();
-                            startlink = null;
-                        }
-                        num++;
-                    }
-                } else {
-                    // Build chain and solve for velocities.  This implementation is a little
-                    // inefficient since it builds the second chain by a duplicate calculation rather
-                    // than a copy.  Sketch of algorithm:
-                    //    find first handlink that straddles loopStartTime -- call it startlink
-                    //    startevent = first event in startlink
-                    //    delayedstartevent = corresponding event 1 delay period after startevent
-                    //    find handlink that ends with delayedstartevent -- call it endlink
-                    //    build spline hand path from startlink to endlink, and calculate (chain 1)
-                    //    startlink = next link after endlink
-                    //    delayed2startevent = corresponding event 1 delay period after delayedstartevent
-                    //    find handlink that ends with delayed2startevent -- call it endlink
-                    //    build spline hand path from startlink to endlink, and calculate (chain 2)
-                    int k;
-                    HandLink hl = null;
-                    for (k = 0; k < handlinks.get(i).get(j).size(); k++) {
-                        hl = handlinks.get(i).get(j).get(k);
-                        if (hl.getEndEvent().getT() > getLoopStartTime())
-                            break;
-                    }
+    // Solve the throws for path i (0-indexed)
+    protected void layoutPath(int i) throws JuggleExceptionInternal {
+        for (PathLink pl : pathlinks.get(i))
+            pl.calcThrow();
+    }
 
-                    for (int chain = 0; chain < 2; chain++) {
-                        HandLink startlink = hl;
-                        JMLEvent startevent = startlink.getStartEvent();
-                        int num = 1;    // number of links in chain
-                        while (hl.getEndEvent().isDelayOf(startevent) == false) {
-                            hl = handlinks.get(i).get(j).get(++k);
-                            num++;
-                        }
-                        Coordinate[] pos = new Coordinate[num+1];
-                        double[] times = new double[num+1];
-                        Curve hp = new SplineCurve();
-
-                        for (int l = 0; l < num; l++) {
-                            HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
-                            pos[l] = hl2.getStartEvent().getGlobalCoordinate();
-                            times[l] = hl2.getStartEvent().getT();
-                            hl2.setHandCurve(hp);
-                        }
-                        pos[num] = hl.getEndEvent().getGlobalCoordinate();
-                        times[num] = hl.getEndEvent().getT();
-                        hp.setCurve(pos, times, null, null); // null endpoint velocities signals to calculate
-                        hp.calcCurve();
+    // Lay out the hand curves for juggler i (0-indexed), hand index j
+    protected void layoutHandPath(int i, int j) throws JuggleExceptionInternal {
+        // There are two cases -- a hand has throw or softcatch events (which define
+        // hand velocities at points in time), or it does not (no velocities known).
+        // To determine the spline paths, we need to solve for hand velocity at each
+        // of its events, but this is done differently in the two cases.
 
-                        if (chain == 0)
-                            hl = handlinks.get(i).get(j).get(++k);
+        if (hasVDHandJMLTransition[i][j]) {
+            int num = 0;
+            HandLink startlink = null;
+
+            for (int k = 0; k < handlinks.get(i).get(j).size(); k++) {
+                HandLink hl = handlinks.get(i).get(j).get(k);
+                if (hl.getStartVelocityRef() != null) {
+                    // this is guaranteed to happen before the loop start time, given
+                    // the way we built the event list above
+                    startlink = hl;
+                    num = 1;
+                }
+                if ((hl.getEndVelocityRef() != null) && (startlink != null)) {
+                    Coordinate[] pos = new Coordinate[num+1];
+                    double[] times = new double[num+1];
+                    Curve hp = new SplineCurve();
+
+                    for (int l = 0; l < num; l++) {
+                        HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
+                        pos[l] = hl2.getStartEvent().getGlobalCoordinate();
+                        times[l] = hl2.getStartEvent().getT();
+                        hl2.setHandCurve(hp);
                     }
+                    pos[num] = hl.getEndEvent().getGlobalCoordinate();
+                    times[num] = hl.getEndEvent().getT();
+                    Coordinate startvel = startlink.getStartVelocityRef().getVelocity();
+                    Coordinate endvel = hl.getEndVelocityRef().getVelocity();
+                    hp.setCurve(pos, times, startvel, endvel);
+                    hp.calcCurve();
+                    startlink = null;
+                }
+                num++;
+            }
+        } else {
+            // Build chain and solve for velocities.  This implementation is a little
+            // inefficient since it builds the second chain by a duplicate calculation rather
+            // than a copy.  Sketch of algorithm:
+            //    find first handlink that straddles loopStartTime -- call it startlink
+            //    startevent = first event in startlink
+            //    delayedstartevent = corresponding event 1 delay period after startevent
+            //    find handlink that ends with delayedstartevent -- call it endlink
+            //    build spline hand path from startlink to endlink, and calculate (chain 1)
+            //    startlink = next link after endlink
+            //    delayed2startevent = corresponding event 1 delay period after delayedstartevent
+            //    find handlink that ends with delayed2startevent -- call it endlink
+            //    build spline hand path from startlink to endlink, and calculate (chain 2)
+            int k;
+            HandLink hl = null;
+            for (k = 0; k < handlinks.get(i).get(j).size(); k++) {
+                hl = handlinks.get(i).get(j).get(k);
+                if (hl.getEndEvent().getT() > getLoopStartTime())
+                    break;
+            }
+
+            for (int chain = 0; chain < 2; chain++) {
+                HandLink startlink = hl;
+                JMLEvent startevent = startlink.getStartEvent();
+                int num = 1;    // number of links in chain
+                while (hl.getEndEvent().isDelayOf(startevent) == false) {
+                    hl = handlinks.get(i).get(j).get(++k);
+                    num++;
+                }
+                Coordinate[] pos = new Coordinate[num+1];
+                double[] times = new double[num+1];
+                Curve hp = new SplineCurve();
+
+                for (int l = 0; l < num; l++) {
+                    HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
+                    pos[l] = hl2.getStartEvent().getGlobalCoordinate();
+                    times[l] = hl2.getStartEvent().getT();
+                    hl2.setHandCurve(hp);
                 }
+                pos[num] = hl.getEndEvent().getGlobalCoordinate();
+                times[num] = hl.getEndEvent().getT();
+                hp.setCurve(pos, times, null, null); // null endpoint velocities signals to calculate
+                hp.calcCurve();
+
+                if (chain == 0)
+                    hl = handlinks.get(i).get(j).get(++k);
+            }
+        }
+    }
+
+    // Lay out paths (or hands) 0 to num-1. This is done in parallel when there
+    // are enough links in total to make it worthwhile. If any fail, the error
+    // for the lowest numbered one is thrown, as in a serial layout.
+    protected void runLayoutTasks(boolean hands, int num, int links)
+                                throws JuggleExceptionInternal {
+        if (links < parallel_layout_links || num < 2 ||
+                    ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int i = 0; i < num; i++) {
+                if (hands)
+                    layoutHandPath(i / 2, i % 2);
+                else
+                    layoutPath(i);
+            }
+            return;
+        }
+
+        JuggleExceptionInternal[] errors = new JuggleExceptionInternal[num];
+        ForkJoinPool.commonPool().invoke(new LayoutTask(hands, 0, num, errors));
+
+        for (JuggleExceptionInternal jei : errors) {
+            if (jei != null)
+                throw jei;
+        }
+    }
+
+    protected class LayoutTask extends RecursiveAction {
+        final boolean hands;
+        final int lo, hi;
+        final JuggleExceptionInternal[] errors;
+
+        LayoutTask(boolean hands, int lo, int hi, JuggleExceptionInternal[] errors) {
+            this.hands = hands;
+            this.lo = lo;
+            this.hi = hi;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new LayoutTask(hands, lo, mid, errors),
+                          new LayoutTask(hands, mid, hi, errors));
+                return;
+            }
+
+            try {
+                if (hands)
+                    layoutHandPath(lo / 2, lo % 2);
+                else
+                    layoutPath(lo);
+            } catch (JuggleExceptionInternal jei) {
+                errors[lo] = jei;
             }
         }
     }
 
+    // ------------------------------------------------------------------------
+    // Step 7: make a read-only copy of the layout for queries
+    // ------------------------------------------------------------------------
+
+    protected void takeSnapshot() {
+        this.snapshot = new PatternSnapshot(this);
+    }
+
+    // Returns the latest layout of the pattern, or null if it has never been
+    // laid out. The snapshot isn't affected by later changes to the pattern,
+    // so it can be used from any thread without locking.
+    public PatternSnapshot getSnapshot()    { return snapshot; }
+
+    // ------------------------------------------------------------------------
+    // Baked animation
+    //
+    // The animator draws the same frames each time through the pattern, so
+    // it can ask for the prop, hand and juggler positions at those times to
+    // be sampled once into tables (see BakedFrames). The tables belong to a
+    // snapshot, so they're made the first time they're needed and go away
+    // when the pattern is laid out again. Other times aren't baked and are
+    // calculated as usual.
+    // ------------------------------------------------------------------------
+
+    // Request baking of `frames` frames starting at time `start`.
+    public void bake(double start, double interval, int frames) {
+        bakestart = start;
+        bakeinterval = interval;
+        bakeframes = frames;
+    }
+
+    public void unbake() {
+        bakeframes = 0;
+    }
+
+    // Returns the baked frames for the latest layout, or null if baking
+    // hasn't been requested. Read positions only from the returned object,
+    // which stays the same if the pattern is changed or laid out again.
+    public BakedFrames getBakedFrames() {
+        return getBakedFrames(snapshot);
+    }
+
+    // Version for a given snapshot of the pattern
+    public BakedFrames getBakedFrames(PatternSnapshot snap) {
+        int frames = bakeframes;
+        if (snap == null || frames <= 0)
+            return null;
+        return snap.getBakedFrames(bakestart, bakeinterval, frames);
+    }
+
     // ------------------------------------------------------------------------
     // Methods used by animator to get prop and body locations at specified times.
     // ------------------------------------------------------------------------
@@ -953,35 +1218,19 @@ done2:
 
     // returns path coordinate in global frame
     public void getPathCoordinate(int path, double time, Coordinate newPosition) throws JuggleExceptionInternal {
-        for (PathLink pl : pathlinks.get(path - 1)) {
-            if (time >= pl.getStartEvent().getT() && time <= pl.getEndEvent().getT()) {
-                if (pl.isInHand()) {
-                    int jug = pl.getHoldingJuggler();
-                    int hand = pl.getHoldingHand();
-                    this.getHandCoordinate(jug, hand, time, newPosition);
-                    return;
-                } else {
-                    pl.getPath().getCoordinate(time, newPosition);
-                    return;
-                }
-            }
-        }
-        throw new JuggleExceptionInternal("time t=" + time + " is out of path range");
+        snapshot.getPathCoordinate(path, time, newPosition);
+    }
+
+    // Path coordinates at the increasing times t[from] through t[to-1], into
+    // x, y and z at the same indices
+    public void getPathCoordinates(int path, double[] t, int from, int to, double[] x,
+                        double[] y, double[] z) throws JuggleExceptionInternal {
+        snapshot.getPathCoordinates(path, t, from, to, x, y, z);
     }
 
     // returns true if a given hand is holding the path at a given time
     public boolean isHandHoldingPath(int juggler, int hand, double time, int path) {
-        for (PathLink pl : pathlinks.get(path - 1)) {
-            if (!pl.isInHand())
-                continue;
-            if (pl.getHoldingJuggler() != juggler)
-                continue;
-            if (pl.getHoldingHand() != hand)
-                continue;
-            if (time >= pl.getStartEvent().getT() && time <= pl.getEndEvent().getT())
-                return true;
-        }
-        return false;
+        return snapshot.isHandHoldingPath(juggler, hand, time, path);
     }
 
     // returns orientation of prop on given path, in global frame
@@ -993,213 +1242,92 @@ done2:
         return (3.0 * time);
     }
 
+    // The juggler methods below work from the pattern's own juggler curves
+    // rather than the snapshot, since they're needed during layout.
+
     // returns juggler coordinate in global frame
     public void getJugglerPosition(int juggler, double time, Coordinate newPosition) {
-        Curve p = jugglercurve[juggler - 1];
-
-        while (time < p.getStartTime())
-            time += (this.getLoopEndTime() - this.getLoopStartTime());
-        while (time > p.getEndTime())
-            time -= (this.getLoopEndTime() - this.getLoopStartTime());
-
-        p.getCoordinate(time, newPosition);
+        PatternSnapshot.getLoopCurveCoordinate(jugglercurve[juggler - 1], time,
+                        this.getLoopEndTime() - this.getLoopStartTime(), newPosition);
     }
 
     // returns angle (in degrees) between local x axis and global x axis
     // (rotation around vertical z axis)
     public double getJugglerAngle(int juggler, double time) {
-        Curve p = jugglerangle[juggler - 1];
-
-        while (time < p.getStartTime())
-            time += (this.getLoopEndTime() - this.getLoopStartTime());
-        while (time > p.getEndTime())
-            time -= (this.getLoopEndTime() - this.getLoopStartTime());
+        return getJugglerAngle(juggler, time, new Coordinate());
+    }
 
-        Coordinate coord = new Coordinate();
-        p.getCoordinate(time, coord);
+    // version that uses `temp` for working space
+    protected double getJugglerAngle(int juggler, double time, Coordinate temp) {
+        PatternSnapshot.getLoopCurveCoordinate(jugglerangle[juggler - 1], time,
+                        this.getLoopEndTime() - this.getLoopStartTime(), temp);
+        return temp.x;
+    }
 
-        return coord.x;
+    // Find a juggler's position and angle at a given time, for converting
+    // between coordinate frames. This doesn't allocate any objects.
+    public void getJugglerTransform(int juggler, double time, JugglerTransform result) {
+        // origin is set below, so use it as working space first
+        double angle = this.getJugglerAngle(juggler, time, result.origin);
+        this.getJugglerPosition(juggler, time, result.origin);
+        result.setAngle(angle);
     }
 
     // Convert from local juggler frame to global frame
     public Coordinate convertLocalToGlobal(Coordinate lc, int juggler, double time) {
-        Coordinate origin = new Coordinate();
-        this.getJugglerPosition(juggler, time, origin);
-        double angle = Math.toRadians(this.getJugglerAngle(juggler, time));
-        lc.y += Juggler.pattern_y;
-
-        Coordinate gc = new Coordinate(origin.x + lc.x * Math.cos(angle) - lc.y * Math.sin(angle),
-                                       origin.y + lc.x * Math.sin(angle) + lc.y * Math.cos(angle),
-                                       origin.z + lc.z);
+        JugglerTransform jt = new JugglerTransform();
+        this.getJugglerTransform(juggler, time, jt);
+        Coordinate gc = new Coordinate();
+        jt.localToGlobal(lc, gc);
         return gc;
     }
 
-
     // Convert from global to local frame for a juggler
     public Coordinate convertGlobalToLocal(Coordinate gc, int juggler, double t) {
-        Coordinate origin = new Coordinate();
-        this.getJugglerPosition(juggler, t, origin);
-        double angle = Math.toRadians(this.getJugglerAngle(juggler, t));
-        Coordinate c2 = Coordinate.sub(gc, origin);
-
-        Coordinate lc = new Coordinate(c2.x * Math.cos(angle) + c2.y * Math.sin(angle),
-                                       -c2.x * Math.sin(angle) + c2.y * Math.cos(angle),
-                                       c2.z);
-        lc.y -= Juggler.pattern_y;
+        JugglerTransform jt = new JugglerTransform();
+        this.getJugglerTransform(juggler, t, jt);
+        Coordinate lc = new Coordinate();
+        jt.globalToLocal(gc, lc);
         return lc;
     }
 
     // returns hand coordinate in global frame
     public void getHandCoordinate(int juggler, int hand, double time, Coordinate newPosition)
                         throws JuggleExceptionInternal {
-        int handindex = (hand == HandLink.LEFT_HAND) ? 0 : 1;
-
-        for (HandLink hl : handlinks.get(juggler - 1).get(handindex)) {
-            if (time >= hl.getStartEvent().getT() && time < hl.getEndEvent().getT()) {
-                Curve hp = hl.getHandCurve();
-                if (hp == null)
-                    throw new JuggleExceptionInternal("getHandCoordinate() null pointer");
-                hl.getHandCurve().getCoordinate(time, newPosition);
-                return;
-            }
-        }
-        throw new JuggleExceptionInternal("time t="+time+" (j="+juggler+",h="+handindex+") is out of handpath range");
+        snapshot.getHandCoordinate(juggler, hand, time, newPosition);
+    }
+
+    // Hand coordinates at the increasing times t[from] through t[to-1], into
+    // x, y and z at the same indices
+    public void getHandCoordinates(int juggler, int hand, double[] t, int from, int to,
+                        double[] x, double[] y, double[] z) throws JuggleExceptionInternal {
+        snapshot.getHandCoordinates(juggler, hand, t, from, to, x, y, z);
     }
 
     // Get volume of any catch made between time1 and time2; if no catch, returns 0.0
     public double getPathCatchVolume(int path, double time1, double time2) {
-        int i;
-        PathLink pl1 = null, pl2 = null;
-        boolean wasinair = false;
-        boolean gotcatch = false;
-
-        for (i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            pl1 = pathlinks.get(path - 1).get(i);
-            if (time1 >= pl1.getStartEvent().getT() && time1 <= pl1.getEndEvent().getT())
-                break;
-        }
-        if (i == pathlinks.get(path - 1).size())
-            return 0.0;
-        while (true) {
-            pl2 = pathlinks.get(path - 1).get(i);
-            if (!pl2.isInHand())
-                wasinair = true;
-            if (pl2.isInHand() && wasinair) {
-                gotcatch = true;
-                break;
-            }
-            if (time2 >= pl2.getStartEvent().getT() && time2 <= pl2.getEndEvent().getT())
-                break;
-
-            i++;
-            if (i == pathlinks.get(path - 1).size())
-                i = 0;
-        }
-
-        // We don't adjust the playback volume of the audio clip, so this is just
-        // yes/no for now
-        if (gotcatch)
-            return 1.0;
-
-        return 0.0;
+        return snapshot.getPathCatchVolume(path, time1, time2);
     }
 
     // Get volume of any bounce between time1 and time2; if no catch, returns 0.0
     public double getPathBounceVolume(int path, double time1, double time2) {
-        int i;
-        PathLink pl = null;
-
-        for (i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            pl = pathlinks.get(path - 1).get(i);
-            if (time1 >= pl.getStartEvent().getT() && time1 <= pl.getEndEvent().getT())
-                break;
-        }
-        if (i == pathlinks.get(path - 1).size())
-            return 0.0;
-        while (true) {
-            pl = pathlinks.get(path - 1).get(i);
-            Path p = pl.getPath();
-            if (p instanceof BouncePath) {
-                BouncePath bp = (BouncePath)p;
-                double vol = bp.getBounceVolume(time1, time2);
-                if (vol > 0.0)
-                    return vol;
-            }
-            if (time2 >= pl.getStartEvent().getT() && time2 <= pl.getEndEvent().getT())
-                break;
-
-            i++;
-            if (i == pathlinks.get(path - 1).size())
-                i = 0;
-        }
-
-        return 0.0;
+        return snapshot.getPathBounceVolume(path, time1, time2);
     }
 
     public Coordinate getPathMax(int path) {    // maximum of each coordinate
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-
-        for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            PathLink pl = pathlinks.get(path - 1).get(i);
-            if (pl.isInHand())
-                result = Coordinate.max(result,
-                                        getHandMax(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
-            else
-                result = Coordinate.max(result,
-                                        pl.getPath().getMax(t1, t2));
-        }
-        return result;
+        return snapshot.getPathMax(path);
     }
 
     public Coordinate getPathMin(int path) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-
-        for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            PathLink pl = pathlinks.get(path - 1).get(i);
-            if (pl.isInHand())
-                result = Coordinate.min(result,
-                                        getHandMin(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
-            else
-                result = Coordinate.min(result,
-                                        pl.getPath().getMin(t1, t2));
-        }
-        return result;
+        return snapshot.getPathMin(path);
     }
 
     public Coordinate getHandMax(int juggler, int hand) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-        int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
-
-        for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
-            HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
-            Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.max(result, hp.getMax(t1, t2));
-        }
-        return result;
+        return snapshot.getHandMax(juggler, hand);
     }
 
     public Coordinate getHandMin(int juggler, int hand) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-        int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
-
-        for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
-            HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
-            Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.min(result, hp.getMin(t1, t2));
-        }
-        return result;
+        return snapshot.getHandMin(juggler, hand);
     }
 
     public Coordinate getJugglerMax(int juggler) {
@@ -1422,12 +1550,50 @@ done2:
         return sw.toString();
     }
 
+    // Copy the definition of the pattern: props, symmetries, positions and
+    // master events. The copy shares nothing that can be changed, so either
+    // pattern can be edited (or laid out) without affecting the other. It
+    // needs to be laid out before use.
     @Override
     public Object clone() {
-        try {
-            return new JMLPattern(new StringReader(this.toString()));
-        } catch (Exception e) {
+        JMLPattern pat = new JMLPattern();
+        pat.version = version;
+        pat.title = title;
+        pat.numjugglers = numjugglers;
+        pat.numpaths = numpaths;
+        pat.valid = valid;
+
+        for (PropDef pd : props)
+            pat.props.add(pd.duplicate());
+        if (propassignment != null)
+            pat.propassignment = propassignment.clone();
+        for (JMLSymmetry sym : symmetries)
+            pat.symmetries.add(sym.duplicate());
+
+        // lists are already in time order, so append to the end
+        JMLPosition lastpos = null;
+        for (JMLPosition pos = positionlist; pos != null; pos = pos.getNext()) {
+            JMLPosition newpos = pos.duplicate();
+            newpos.setPrevious(lastpos);
+            if (lastpos == null)
+                pat.positionlist = newpos;
+            else
+                lastpos.setNext(newpos);
+            lastpos = newpos;
         }
-        return null;
+
+        JMLEvent lastev = null;
+        for (JMLEvent ev = eventlist; ev != null; ev = ev.getNext()) {
+            if (!ev.isMaster())
+                continue;
+            JMLEvent newev = ev.copy();
+            newev.setPrevious(lastev);
+            if (lastev == null)
+                pat.eventlist = newev;
+            else
+                lastev.setNext(newev);
+            lastev = newev;
+        }
+        return pat;
     }
 }
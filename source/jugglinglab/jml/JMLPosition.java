@@ -42,6 +42,17 @@ public class JMLPosition {
         this.juggler = j;
     }
 
+    public JMLPosition duplicate() {
+        JMLPosition pos = new JMLPosition();
+        pos.x = x;
+        pos.y = y;
+        pos.z = z;
+        pos.t = t;
+        pos.angle = angle;
+        pos.juggler = juggler;
+        return pos;
+    }
+
     public JMLPosition getPrevious()            { return prev; }
     public void setPrevious(JMLPosition prev)   { this.prev = prev; }
     public JMLPosition getNext()                { return next; }
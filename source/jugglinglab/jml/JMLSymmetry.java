@@ -67,6 +67,18 @@ public class JMLSymmetry {
     public double getDelay()                { return delay; }
     public void setDelay(double del)        { this.delay = del; }
 
+    // Permutations are never changed once made, so the copy can share them
+    public JMLSymmetry duplicate() {
+        JMLSymmetry sym = new JMLSymmetry();
+        sym.type = type;
+        sym.numjugglers = numjugglers;
+        sym.numpaths = numpaths;
+        sym.jugglerperm = jugglerperm;
+        sym.pathperm = pathperm;
+        sym.delay = delay;
+        return sym;
+    }
+
     public void readJML(JMLNode current, int numjug, int numpat, String version) throws JuggleExceptionUser {
         JMLAttributes at = current.getAttributes();
         String symtype, pathperm, jugglerperm, delaystring;
@@ -0,0 +1,56 @@
+// JugglerTransform.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.jml;
+
+import jugglinglab.util.*;
+import jugglinglab.renderer.Juggler;
+
+
+// This class holds a juggler's position and facing angle at one point in
+// time, for converting coordinates between the juggler's local frame and the
+// global frame. Fill it in with JMLPattern.getJugglerTransform(); the same
+// object can be reused for any juggler and time, so nothing is allocated.
+
+public class JugglerTransform {
+    public Coordinate   origin;         // juggler position in global frame
+    public double       angle;          // in degrees, as in getJugglerAngle()
+    public double       cos, sin;       // of angle
+
+    public JugglerTransform() {
+        origin = new Coordinate();
+    }
+
+    public void setAngle(double angle) {
+        this.angle = angle;
+        double a = Math.toRadians(angle);
+        cos = Math.cos(a);
+        sin = Math.sin(a);
+    }
+
+    // Convert from local juggler frame to global frame. `result` may be the
+    // same object as `lc`.
+    public void localToGlobal(Coordinate lc, Coordinate result) {
+        double x = lc.x;
+        double y = lc.y + Juggler.pattern_y;
+        double z = lc.z;
+
+        result.x = origin.x + x * cos - y * sin;
+        result.y = origin.y + x * sin + y * cos;
+        result.z = origin.z + z;
+    }
+
+    // Convert from global frame to local juggler frame. `result` may be the
+    // same object as `gc`.
+    public void globalToLocal(Coordinate gc, Coordinate result) {
+        double x = gc.x - origin.x;
+        double y = gc.y - origin.y;
+        double z = gc.z - origin.z;
+
+        result.x = x * cos + y * sin;
+        result.y = -x * sin + y * cos;
+        result.z = z;
+        result.y -= Juggler.pattern_y;
+    }
+}
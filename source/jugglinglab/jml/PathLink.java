@@ -31,16 +31,35 @@ public class PathLink {
     }
 
     public void setThrow(String type, String mod) throws JuggleExceptionUser, JuggleExceptionInternal {
+        initThrow(type, mod);
+        calcThrow();
+    }
+
+    // The two halves of setThrow(). Pattern layout does all of the first
+    // before any of the second, so the paths can be solved in parallel.
+    public void initThrow(String type, String mod) throws JuggleExceptionUser {
         proppath = Path.newPath(type);
         proppath.initPath(mod);
         proppath.setStart(startevent.getGlobalCoordinate(), startevent.getT());
         proppath.setEnd(endevent.getGlobalCoordinate(), endevent.getT());
-        proppath.calcPath();
         this.throwtype = type;
         this.mod = mod;
         this.inhand = false;
     }
 
+    public void calcThrow() throws JuggleExceptionInternal {
+        if (!inhand)
+            proppath.calcPath();
+    }
+
+    // Recalculate the throw after its start or end event has been moved in
+    // space. This makes a new Path rather than changing the old one, which
+    // may still be in use by an earlier PatternSnapshot.
+    public void updateThrow() throws JuggleExceptionUser, JuggleExceptionInternal {
+        if (!inhand && proppath != null)
+            setThrow(throwtype, mod);
+    }
+
     public void setInHand(int juggler, int hand) {
         this.inhand = true;
         this.juggler = juggler;
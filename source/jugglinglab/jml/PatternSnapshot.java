@@ -0,0 +1,551 @@
+// PatternSnapshot.java
+//
+// Copyright 2019 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.jml;
+
+import java.util.*;
+
+import jugglinglab.path.*;
+import jugglinglab.curve.*;
+import jugglinglab.util.*;
+
+
+// This class is a read-only copy of a pattern's layout, made by
+// JMLPattern.layoutPattern() and retrieved with JMLPattern.getSnapshot().
+//
+// A snapshot holds only the laid-out paths and curves, never the events or
+// links of the pattern itself. The Path and Curve objects it refers to are
+// never changed after layout (a new layout makes new ones), so a snapshot
+// stays valid when the pattern is edited and laid out again. Any number of
+// threads can query the same snapshot at once without locking. The only
+// state that changes is the cache of baked frames, whose tables are
+// immutable once made (see getBakedFrames()).
+//
+// The query methods are the same as in JMLPattern, which answers its own
+// queries from its latest snapshot.
+
+public class PatternSnapshot {
+    protected final int numjugglers;
+    protected final int numpaths;
+    protected final double loopstart, loopend;
+
+    // for each path, the links in time order: start and end times, the hand
+    // holding the prop (if any), and the flight path otherwise
+    protected final double[][] pathlinkstart, pathlinkend;  // [path]
+    protected final boolean[][] pathinhand;
+    protected final int[][] pathjuggler, pathhand;
+    protected final Path[][] pathpath;
+
+    // for each hand, the links in time order and their curves
+    protected final double[][][] handlinkstart, handlinkend;    // [juggler][hand]
+    protected final Curve[][][] handcurve;
+
+    protected final Curve[] jugglercurve;   // coordinates for each juggler
+    protected final Curve[] jugglerangle;   // angles for each juggler
+
+    // bounding boxes, found once when the snapshot is made
+    protected final Coordinate[] pathmax, pathmin;      // [path]
+    protected final Coordinate[][] handmax, handmin;    // [juggler][hand]
+    protected final Coordinate[] jugglermax, jugglermin;
+
+    // times of catches and bounces in increasing order, for each path and
+    // for all paths together
+    protected final double[][] pathcatchtimes, pathbouncetimes;    // [path]
+    protected final double[] catchtimes, bouncetimes;
+
+    // most recently baked frames (see getBakedFrames())
+    protected volatile BakedFrames baked;
+
+
+    protected PatternSnapshot(JMLPattern pat) {
+        numjugglers = pat.getNumberOfJugglers();
+        numpaths = pat.getNumberOfPaths();
+        loopstart = pat.getLoopStartTime();
+        loopend = pat.getLoopEndTime();
+
+        pathlinkstart = new double[numpaths][];
+        pathlinkend = new double[numpaths][];
+        pathinhand = new boolean[numpaths][];
+        pathjuggler = new int[numpaths][];
+        pathhand = new int[numpaths][];
+        pathpath = new Path[numpaths][];
+
+        for (int i = 0; i < numpaths; i++) {
+            ArrayList<PathLink> links = pat.pathlinks.get(i);
+            int n = links.size();
+            pathlinkstart[i] = new double[n];
+            pathlinkend[i] = new double[n];
+            pathinhand[i] = new boolean[n];
+            pathjuggler[i] = new int[n];
+            pathhand[i] = new int[n];
+            pathpath[i] = new Path[n];
+
+            for (int k = 0; k < n; k++) {
+                PathLink pl = links.get(k);
+                pathlinkstart[i][k] = pl.getStartEvent().getT();
+                pathlinkend[i][k] = pl.getEndEvent().getT();
+                pathinhand[i][k] = pl.isInHand();
+                pathjuggler[i][k] = pl.getHoldingJuggler();
+                pathhand[i][k] = pl.getHoldingHand();
+                pathpath[i][k] = pl.getPath();
+            }
+        }
+
+        handlinkstart = new double[numjugglers][2][];
+        handlinkend = new double[numjugglers][2][];
+        handcurve = new Curve[numjugglers][2][];
+
+        for (int i = 0; i < numjugglers; i++) {
+            for (int j = 0; j < 2; j++) {
+                ArrayList<HandLink> links = pat.handlinks.get(i).get(j);
+                int n = links.size();
+                handlinkstart[i][j] = new double[n];
+                handlinkend[i][j] = new double[n];
+                handcurve[i][j] = new Curve[n];
+
+                for (int k = 0; k < n; k++) {
+                    HandLink hl = links.get(k);
+                    handlinkstart[i][j][k] = hl.getStartEvent().getT();
+                    handlinkend[i][j][k] = hl.getEndEvent().getT();
+                    handcurve[i][j][k] = hl.getHandCurve();
+                }
+            }
+        }
+
+        jugglercurve = pat.jugglercurve.clone();
+        jugglerangle = pat.jugglerangle.clone();
+
+        handmax = new Coordinate[numjugglers][2];
+        handmin = new Coordinate[numjugglers][2];
+        for (int i = 0; i < numjugglers; i++) {
+            for (int j = 0; j < 2; j++) {
+                handmax[i][j] = calcHandExtent(i, j, true);
+                handmin[i][j] = calcHandExtent(i, j, false);
+            }
+        }
+
+        pathmax = new Coordinate[numpaths];
+        pathmin = new Coordinate[numpaths];
+        for (int i = 0; i < numpaths; i++) {
+            pathmax[i] = calcPathExtent(i, true);
+            pathmin[i] = calcPathExtent(i, false);
+        }
+
+        jugglermax = new Coordinate[numjugglers];
+        jugglermin = new Coordinate[numjugglers];
+        for (int i = 0; i < numjugglers; i++) {
+            jugglermax[i] = jugglercurve[i].getMax();
+            jugglermin[i] = jugglercurve[i].getMin();
+        }
+
+        pathcatchtimes = new double[numpaths][];
+        pathbouncetimes = new double[numpaths][];
+        for (int i = 0; i < numpaths; i++) {
+            pathcatchtimes[i] = calcCatchTimes(i);
+            pathbouncetimes[i] = calcBounceTimes(i);
+        }
+        catchtimes = mergeTimes(pathcatchtimes);
+        bouncetimes = mergeTimes(pathbouncetimes);
+    }
+
+    // ------------------------------------------------------------------------
+    //   Bounding boxes
+    //
+    // Each path and curve finds its own extremes analytically (at the ends of
+    // its segments and at any turning points in between). Here we combine
+    // them over all the links, once per layout, so that rescaling the
+    // animator doesn't go back over the geometry.
+    // ------------------------------------------------------------------------
+
+    protected Coordinate calcHandExtent(int juggler, int handindex, boolean findmax) {
+        Coordinate result = null;
+        Curve[] curves = handcurve[juggler][handindex];
+
+        for (int i = 0; i < curves.length; i++) {
+            if (curves[i] == null)
+                continue;
+            if (findmax)
+                result = Coordinate.max(result, curves[i].getMax(loopstart, loopend));
+            else
+                result = Coordinate.min(result, curves[i].getMin(loopstart, loopend));
+        }
+        return result;
+    }
+
+    // uses the hand extents, so those must be found first
+    protected Coordinate calcPathExtent(int path, boolean findmax) {
+        Coordinate result = null;
+
+        for (int i = 0; i < pathpath[path].length; i++) {
+            Coordinate c = null;
+            if (pathinhand[path][i]) {
+                int handindex = HandLink.index(pathhand[path][i]);
+                Coordinate[] hand = (findmax ? handmax : handmin)[pathjuggler[path][i] - 1];
+                c = hand[handindex];
+            } else if (findmax)
+                c = pathpath[path][i].getMax(loopstart, loopend);
+            else
+                c = pathpath[path][i].getMin(loopstart, loopend);
+
+            result = (findmax ? Coordinate.max(result, c) : Coordinate.min(result, c));
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    //   Catch and bounce times
+    //
+    // These are used for the audio cues, which ask on every animation frame
+    // whether anything was caught or bounced since the last frame.
+    // ------------------------------------------------------------------------
+
+    // A catch is the start of a link in a hand that follows a link in the air.
+    protected double[] calcCatchTimes(int path) {
+        boolean[] inhand = pathinhand[path];
+        int num = 0;
+        for (int i = 1; i < inhand.length; i++) {
+            if (inhand[i] && !inhand[i - 1])
+                num++;
+        }
+
+        double[] result = new double[num];
+        num = 0;
+        for (int i = 1; i < inhand.length; i++) {
+            if (inhand[i] && !inhand[i - 1])
+                result[num++] = pathlinkstart[path][i];
+        }
+        return result;
+    }
+
+    // A bounce path can find a bounce just after its end, where the prop has
+    // already been caught; those are left out.
+    protected double[] calcBounceTimes(int path) {
+        Path[] paths = pathpath[path];
+        int num = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] instanceof BouncePath) {
+                BouncePath bp = (BouncePath)paths[i];
+                for (int j = 0; j < bp.getNumberOfBounces(); j++) {
+                    if (bp.getBounceTime(j) <= bp.getEndTime())
+                        num++;
+                }
+            }
+        }
+
+        double[] result = new double[num];
+        num = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] instanceof BouncePath) {
+                BouncePath bp = (BouncePath)paths[i];
+                for (int j = 0; j < bp.getNumberOfBounces(); j++) {
+                    if (bp.getBounceTime(j) <= bp.getEndTime())
+                        result[num++] = bp.getBounceTime(j);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected static double[] mergeTimes(double[][] times) {
+        int num = 0;
+        for (int i = 0; i < times.length; i++)
+            num += times[i].length;
+
+        double[] result = new double[num];
+        num = 0;
+        for (int i = 0; i < times.length; i++) {
+            System.arraycopy(times[i], 0, result, num, times[i].length);
+            num += times[i].length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // Returns the index of the first entry in `times` that is >= `time`, or
+    // > `time` if `after` is set. Returns times.length if there is none.
+    protected static int findTime(double[] times, double time, boolean after) {
+        int lo = 0;
+        int hi = times.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time || (after && times[mid] == time))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // callers are free to change the coordinates we return
+    protected static Coordinate copyOf(Coordinate c) {
+        return (c == null ? null : new Coordinate(c));
+    }
+
+    // ------------------------------------------------------------------------
+    //   Finding links by time
+    //
+    // The links for each path (and each hand) follow one another in time, so
+    // their start and end times are both in increasing order. This lets us
+    // find the link at a given time with a binary search instead of scanning
+    // the whole list on every animation frame.
+    // ------------------------------------------------------------------------
+
+    // Returns the index of the first link with start <= time <= end, or with
+    // start <= time < end if `open_end` is set. Returns -1 if there is none.
+    protected static int findLink(double[] start, double[] end, double time, boolean open_end) {
+        int lo = 0;
+        int hi = end.length;
+
+        // find the first link ending at or after `time`
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (end[mid] < time || (open_end && end[mid] == time))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        if (lo == end.length || start[lo] > time)
+            return -1;
+        return lo;
+    }
+
+    // index of the link for a path at a given time, or -1 if none
+    protected int findPathLink(int path, double time) {
+        return findLink(pathlinkstart[path - 1], pathlinkend[path - 1], time, false);
+    }
+
+    // Evaluate a curve that covers one loop of the pattern, at a time that
+    // may be outside the curve's range.
+    protected static void getLoopCurveCoordinate(Curve p, double time, double looptime,
+                                Coordinate newPosition) {
+        while (time < p.getStartTime())
+            time += looptime;
+        while (time > p.getEndTime())
+            time -= looptime;
+
+        p.getCoordinate(time, newPosition);
+    }
+
+    // ------------------------------------------------------------------------
+    //   Queries (see the methods of the same names in JMLPattern)
+    // ------------------------------------------------------------------------
+
+    public int getNumberOfJugglers()        { return numjugglers; }
+    public int getNumberOfPaths()           { return numpaths; }
+    public double getLoopStartTime()        { return loopstart; }
+    public double getLoopEndTime()          { return loopend; }
+
+    // returns path coordinate in global frame
+    public void getPathCoordinate(int path, double time, Coordinate newPosition) throws JuggleExceptionInternal {
+        int i = findPathLink(path, time);
+        if (i < 0)
+            throw new JuggleExceptionInternal("time t=" + time + " is out of path range");
+
+        if (pathinhand[path - 1][i])
+            this.getHandCoordinate(pathjuggler[path - 1][i], pathhand[path - 1][i], time, newPosition);
+        else
+            pathpath[path - 1][i].getCoordinate(time, newPosition);
+    }
+
+    // returns true if a given hand is holding the path at a given time
+    public boolean isHandHoldingPath(int juggler, int hand, double time, int path) {
+        int i = findPathLink(path, time);
+        if (i < 0)
+            return false;
+
+        // at an event time more than one link can contain `time`
+        double[] start = pathlinkstart[path - 1];
+        for (; i < start.length && start[i] <= time; i++) {
+            if (pathinhand[path - 1][i] && pathjuggler[path - 1][i] == juggler &&
+                        pathhand[path - 1][i] == hand)
+                return true;
+        }
+        return false;
+    }
+
+    // returns juggler coordinate in global frame
+    public void getJugglerPosition(int juggler, double time, Coordinate newPosition) {
+        getLoopCurveCoordinate(jugglercurve[juggler - 1], time, loopend - loopstart,
+                               newPosition);
+    }
+
+    // returns angle (in degrees) between local x axis and global x axis
+    // (rotation around vertical z axis)
+    public double getJugglerAngle(int juggler, double time) {
+        return getJugglerAngle(juggler, time, new Coordinate());
+    }
+
+    // version that uses `temp` for working space
+    protected double getJugglerAngle(int juggler, double time, Coordinate temp) {
+        getLoopCurveCoordinate(jugglerangle[juggler - 1], time, loopend - loopstart, temp);
+        return temp.x;
+    }
+
+    public void getJugglerTransform(int juggler, double time, JugglerTransform result) {
+        // origin is set below, so use it as working space first
+        double angle = this.getJugglerAngle(juggler, time, result.origin);
+        this.getJugglerPosition(juggler, time, result.origin);
+        result.setAngle(angle);
+    }
+
+    // returns hand coordinate in global frame
+    public void getHandCoordinate(int juggler, int hand, double time, Coordinate newPosition)
+                        throws JuggleExceptionInternal {
+        int handindex = (hand == HandLink.LEFT_HAND) ? 0 : 1;
+
+        int i = findLink(handlinkstart[juggler - 1][handindex],
+                         handlinkend[juggler - 1][handindex], time, true);
+        if (i < 0)
+            throw new JuggleExceptionInternal("time t="+time+" (j="+juggler+",h="+handindex+") is out of handpath range");
+
+        Curve hp = handcurve[juggler - 1][handindex][i];
+        if (hp == null)
+            throw new JuggleExceptionInternal("getHandCoordinate() null pointer");
+        hp.getCoordinate(time, newPosition);
+    }
+
+    // Path coordinates at t[from] through t[to-1], which must be in increasing
+    // order, into x, y and z at the same indices. The links are followed
+    // along with the times, and each one evaluates all of its times at once.
+    public void getPathCoordinates(int path, double[] t, int from, int to, double[] x,
+                        double[] y, double[] z) throws JuggleExceptionInternal {
+        if (from >= to)
+            return;
+        double[] start = pathlinkstart[path - 1];
+        double[] end = pathlinkend[path - 1];
+        int i = Math.max(0, findPathLink(path, t[from]));
+
+        for (int k = from; k < to; ) {
+            // same link as findPathLink() would give
+            while (i < end.length && end[i] < t[k])
+                i++;
+            if (i == end.length || start[i] > t[k])
+                throw new JuggleExceptionInternal("time t=" + t[k] + " is out of path range");
+
+            int runend = k + 1;
+            while (runend < to && t[runend] <= end[i])
+                runend++;
+
+            if (pathinhand[path - 1][i])
+                this.getHandCoordinates(pathjuggler[path - 1][i], pathhand[path - 1][i],
+                                        t, k, runend, x, y, z);
+            else
+                pathpath[path - 1][i].getCoordinates(t, k, runend, x, y, z);
+            k = runend;
+        }
+    }
+
+    // Hand coordinates at t[from] through t[to-1], as in getPathCoordinates()
+    public void getHandCoordinates(int juggler, int hand, double[] t, int from, int to,
+                        double[] x, double[] y, double[] z) throws JuggleExceptionInternal {
+        if (from >= to)
+            return;
+        int handindex = HandLink.index(hand);
+        double[] start = handlinkstart[juggler - 1][handindex];
+        double[] end = handlinkend[juggler - 1][handindex];
+        Curve[] curves = handcurve[juggler - 1][handindex];
+        int i = Math.max(0, findLink(start, end, t[from], true));
+
+        for (int k = from; k < to; ) {
+            while (i < end.length && end[i] <= t[k])
+                i++;
+            if (i == end.length || start[i] > t[k])
+                throw new JuggleExceptionInternal("time t="+t[k]+" (j="+juggler+",h="+handindex+") is out of handpath range");
+            if (curves[i] == null)
+                throw new JuggleExceptionInternal("getHandCoordinate() null pointer");
+
+            int runend = k + 1;
+            while (runend < to && t[runend] < end[i])
+                runend++;
+
+            curves[i].getCoordinates(t, k, runend, x, y, z);
+            k = runend;
+        }
+    }
+
+    // Get volume of any catch made between time1 and time2; if no catch, returns 0.0
+    public double getPathCatchVolume(int path, double time1, double time2) {
+        if (findPathLink(path, time1) < 0)
+            return 0.0;
+
+        // a catch counts if it happens at or after time1, and before time2
+        double[] times = pathcatchtimes[path - 1];
+        int i = findTime(times, time1, false);
+
+        // We don't adjust the playback volume of the audio clip, so this is just
+        // yes/no for now
+        if (i < times.length && times[i] < time2)
+            return 1.0;
+
+        return 0.0;
+    }
+
+    // Get volume of any bounce between time1 and time2; if no catch, returns 0.0
+    public double getPathBounceVolume(int path, double time1, double time2) {
+        if (findPathLink(path, time1) < 0)
+            return 0.0;
+
+        // a bounce counts if it happens strictly between time1 and time2
+        double[] times = pathbouncetimes[path - 1];
+        int i = findTime(times, time1, true);
+
+        if (i < times.length && times[i] < time2)
+            return 1.0;
+
+        return 0.0;
+    }
+
+    // Number of catches over all paths, counted the same way as in
+    // getPathCatchVolume(); this answers the question for every path with
+    // two binary searches.
+    public int getNumberOfCatches(double time1, double time2) {
+        if (time2 <= time1)
+            return 0;
+        return findTime(catchtimes, time2, false) - findTime(catchtimes, time1, false);
+    }
+
+    // Number of bounces over all paths, as in getPathBounceVolume()
+    public int getNumberOfBounces(double time1, double time2) {
+        if (time2 <= time1)
+            return 0;
+        return findTime(bouncetimes, time2, false) - findTime(bouncetimes, time1, true);
+    }
+
+    public Coordinate getPathMax(int path) {    // maximum of each coordinate
+        return copyOf(pathmax[path - 1]);
+    }
+
+    public Coordinate getPathMin(int path) {
+        return copyOf(pathmin[path - 1]);
+    }
+
+    public Coordinate getHandMax(int juggler, int hand) {
+        return copyOf(handmax[juggler - 1][HandLink.index(hand)]);
+    }
+
+    public Coordinate getHandMin(int juggler, int hand) {
+        return copyOf(handmin[juggler - 1][HandLink.index(hand)]);
+    }
+
+    public Coordinate getJugglerMax(int juggler) {
+        return copyOf(jugglermax[juggler - 1]);
+    }
+
+    public Coordinate getJugglerMin(int juggler) {
+        return copyOf(jugglermin[juggler - 1]);
+    }
+
+    // Returns the positions sampled at `frames` frame times starting at
+    // `start`, made the first time they're asked for. The tables for the
+    // latest request are kept, so a renderer asking for the same frames each
+    // time gets them without recalculating.
+    public BakedFrames getBakedFrames(double start, double interval, int frames) {
+        BakedFrames bf = baked;
+        if (bf == null || !bf.matches(start, interval, frames))
+            baked = bf = new BakedFrames(this, start, interval, frames);
+        return bf;
+    }
+}
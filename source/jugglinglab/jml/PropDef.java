@@ -31,6 +31,11 @@ public class PropDef {
     protected void setMod(String spec)  { this.mod = spec; }
     public Prop getProp()               { return prop; }
 
+    // the copy gets its own Prop when it is laid out
+    public PropDef duplicate() {
+        return new PropDef(proptype, mod);
+    }
+
     public void layoutProp() throws JuggleExceptionUser {
         this.prop = Prop.newProp(getType());
         prop.initProp(getMod());
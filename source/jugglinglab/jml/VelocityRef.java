@@ -8,16 +8,21 @@ import jugglinglab.util.*;
 import jugglinglab.path.*;
 
 
+// Refers to the velocity at the start or end of a throw. This goes through
+// the PathLink rather than holding the Path, so it follows the link if its
+// Path is recalculated (see PathLink.updateThrow()).
+
 public class VelocityRef {
-    protected Path  pp;
+    protected PathLink  pl;
     protected boolean   start;
 
-    public VelocityRef(Path pp, boolean start) {
-        this.pp = pp;
+    public VelocityRef(PathLink pl, boolean start) {
+        this.pl = pl;
         this.start = start;
     }
 
     public Coordinate getVelocity() {
+        Path pp = pl.getPath();
         if (start)
             return pp.getStartVelocity();
         else
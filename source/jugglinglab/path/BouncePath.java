@@ -5,6 +5,8 @@
 package jugglinglab.path;
 
 import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
 import jugglinglab.util.*;
 
 
@@ -30,6 +32,12 @@ public class BouncePath extends Path {
     protected double    bouncetime;
     protected int       numbounces;     // actual number of bounces (<= this.bounces)
 
+    // For evaluation: the z coefficients c, b, a of each segment (one more
+    // segment than bounces) starting at zcoef[3*i], and the segment found by
+    // the last call to findSegment().
+    protected double[]  zcoef;
+    protected int       segmenthint;
+
     @Override
     public String getType() { return "Bounce"; }
 
@@ -146,11 +154,50 @@ public class BouncePath extends Path {
 
         cz[0] = start_coord.z;
 
+        // Patterns tend to repeat the same throw many times, so we look for
+        // the solution among the ones we've found before.
+        RootKey key = new RootKey(this, t2);
+        BounceRoot br = rootcache.get(key);
+        if (br == null) {
+            br = findThrowVelocity(t2);
+            cacheRoot(key, br);
+        }
+        this.numbounces = br.numbounces;
+        double v0 = br.v0;
+
+        // finally, set the remaining path variables based on our solution of v0
+        bz[0] = v0;
+        if (az[0] < 0.0)
+            endtime[0] = (-v0 - Math.sqrt(v0*v0 - 4.0*az[0]*(cz[0]-bounceplane))) / (2.0*az[0]);
+        else
+            endtime[0] = (-v0 + Math.sqrt(v0*v0 - 4.0*az[0]*(cz[0]-bounceplane))) / (2.0*az[0]);
+        double vrebound = (-v0 - 2.0*az[0]*endtime[0])*bouncefracsqrt;
+
+        for (int i = 1; i <= numbounces; i++) {
+            bz[i] = vrebound - 2.0*az[i]*endtime[i-1];
+            cz[i] = bounceplane - az[i]*endtime[i-1]*endtime[i-1] - bz[i]*endtime[i-1];
+            endtime[i] = endtime[i-1] - vrebound / az[i];
+            vrebound = bouncefracsqrt * vrebound;
+        }
+        endtime[numbounces] = getDuration();    // fix this assignment from the above loop
+
+        double[] zc = new double[3 * (numbounces + 1)];
+        for (int i = 0; i <= numbounces; i++) {
+            zc[3*i] = cz[i];
+            zc[3*i+1] = bz[i];
+            zc[3*i+2] = az[i];
+        }
+        this.zcoef = zc;
+    }
+
+    // Find the number of bounces and the throw velocity for a path of
+    // duration t2, using as many bounces as we can (up to `bounces`).
+    protected BounceRoot findThrowVelocity(double t2) throws JuggleExceptionInternal {
         double[] root = new double[4];
         boolean[] liftcatch = new boolean[4];
         int numroots;
 
-        for (this.numbounces = bounces; numbounces > 0; numbounces--) {
+        for (int numbounces = bounces; numbounces > 0; numbounces--) {
             numroots = 0;
             double f1 = bouncefracsqrt;
             for (int i = 1; i < numbounces; i++)
@@ -265,28 +312,87 @@ public class BouncePath extends Path {
             System.out.println("Using root v0 = "+v0+" -- lhs = "+lhs+", rhs = "+rhs);
             */
 
-            // finally, set the remaining path variables based on our solution of v0
-            bz[0] = v0;
-            if (az[0] < 0.0)
-                endtime[0] = (-v0 - Math.sqrt(v0*v0 - 4.0*az[0]*(cz[0]-bounceplane))) / (2.0*az[0]);
-            else
-                endtime[0] = (-v0 + Math.sqrt(v0*v0 - 4.0*az[0]*(cz[0]-bounceplane))) / (2.0*az[0]);
-            double vrebound = (-v0 - 2.0*az[0]*endtime[0])*bouncefracsqrt;
-
-            for (int i = 1; i <= numbounces; i++) {
-                bz[i] = vrebound - 2.0*az[i]*endtime[i-1];
-                cz[i] = bounceplane - az[i]*endtime[i-1]*endtime[i-1] - bz[i]*endtime[i-1];
-                endtime[i] = endtime[i-1] - vrebound / az[i];
-                vrebound = bouncefracsqrt * vrebound;
-            }
-            endtime[numbounces] = getDuration();    // fix this assignment from the above loop
-
-            return;
+            return new BounceRoot(numbounces, v0);
         }
 
         throw new JuggleExceptionInternal("No root found in bouncePath");
     }
 
+    // ------------------------------------------------------------------------
+    //   Cache of solutions
+    //
+    // The solution depends only on the path duration, the heights of the
+    // endpoints above the bounce plane, and the path parameters. Paths are
+    // laid out from several threads at once for large patterns, so the cache
+    // is a concurrent map.
+    // ------------------------------------------------------------------------
+
+    protected static final int root_cache_size = 1000;
+
+    protected static final ConcurrentHashMap<RootKey, BounceRoot> rootcache =
+                        new ConcurrentHashMap<RootKey, BounceRoot>();
+
+    protected static void cacheRoot(RootKey key, BounceRoot br) {
+        // start over if the cache gets big, rather than keeping track of
+        // which entries are in use
+        if (rootcache.size() >= root_cache_size)
+            rootcache.clear();
+        rootcache.put(key, br);
+    }
+
+    protected static class RootKey {
+        final double duration, startheight, endheight, bouncefracsqrt, g;
+        final int bounces;
+        final boolean forced, hyper;
+
+        RootKey(BouncePath bp, double duration) {
+            this.duration = duration;
+            this.startheight = bp.start_coord.z - bp.bounceplane;
+            this.endheight = bp.end_coord.z - bp.bounceplane;
+            this.bouncefracsqrt = bp.bouncefracsqrt;
+            this.g = bp.g;
+            this.bounces = bp.bounces;
+            this.forced = bp.forced;
+            this.hyper = bp.hyper;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RootKey))
+                return false;
+            RootKey k = (RootKey)obj;
+            return (Double.doubleToLongBits(duration) == Double.doubleToLongBits(k.duration) &&
+                    Double.doubleToLongBits(startheight) == Double.doubleToLongBits(k.startheight) &&
+                    Double.doubleToLongBits(endheight) == Double.doubleToLongBits(k.endheight) &&
+                    Double.doubleToLongBits(bouncefracsqrt) == Double.doubleToLongBits(k.bouncefracsqrt) &&
+                    Double.doubleToLongBits(g) == Double.doubleToLongBits(k.g) &&
+                    bounces == k.bounces && forced == k.forced && hyper == k.hyper);
+        }
+
+        @Override
+        public int hashCode() {
+            long h = Double.doubleToLongBits(duration);
+            h = 31 * h + Double.doubleToLongBits(startheight);
+            h = 31 * h + Double.doubleToLongBits(endheight);
+            h = 31 * h + Double.doubleToLongBits(bouncefracsqrt);
+            h = 31 * h + Double.doubleToLongBits(g);
+            h = 31 * h + bounces;
+            h = 31 * h + (forced ? 1 : 0);
+            h = 31 * h + (hyper ? 1 : 0);
+            return (int)(h ^ (h >>> 32));
+        }
+    }
+
+    protected static class BounceRoot {
+        final int numbounces;
+        final double v0;
+
+        BounceRoot(int numbounces, double v0) {
+            this.numbounces = numbounces;
+            this.v0 = v0;
+        }
+    }
+
     @Override
     public Coordinate getStartVelocity() {
         return new Coordinate(bx, by, bz[0]);
@@ -304,14 +410,67 @@ public class BouncePath extends Path {
             return;
         time -= start_time;
 
-        double zpos = 0.0;
-        for (int i = 0; i <= numbounces; i++) {
-            if (time < endtime[i] || i == numbounces) {
-                zpos = cz[i] + time*(bz[i] + az[i]*time);
+        int k = 3 * findSegment(time);
+        newPosition.setCoordinate(cx+bx*time, cy+by*time,
+                                  zcoef[k]+time*(zcoef[k+1]+zcoef[k+2]*time));
+    }
+
+    // Returns the segment for a time measured from the start of the path:
+    // the first segment i with time < endtime[i], or the last one.
+    //
+    // Consecutive frames nearly always fall in the same segment or the next
+    // one, so those are checked first. As in Curve, the hint is only a guess
+    // that gets checked, so it's safe for threads sharing the path.
+    protected int findSegment(double time) {
+        int i = segmenthint;
+
+        if (i >= 0 && i <= numbounces && (i == 0 || time >= endtime[i-1])) {
+            if (i == numbounces || time < endtime[i])
+                return i;
+            i++;
+            if (i == numbounces || time < endtime[i]) {
+                segmenthint = i;
+                return i;
+            }
+        }
+
+        for (i = 0; i < numbounces; i++) {
+            if (time < endtime[i])
                 break;
+        }
+        segmenthint = i;
+        return i;
+    }
+
+    @Override
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        int k = from;
+        while (k < to && t[k] < start_time)
+            k++;
+        int last = k;
+        while (last < to && t[last] <= end_time)
+            last++;
+
+        // segment i takes the times before endtime[i], and the last segment
+        // takes the rest
+        for (int i = 0; i <= numbounces && k < last; i++) {
+            int end = last;
+            if (i < numbounces) {
+                end = k;
+                while (end < last && t[end] - start_time < endtime[i])
+                    end++;
+            }
+
+            double c = zcoef[3*i], b = zcoef[3*i+1], a = zcoef[3*i+2];
+
+            for (; k < end; k++) {
+                double time = t[k] - start_time;
+                x[k] = cx+bx*time;
+                y[k] = cy+by*time;
+                z[k] = c+time*(b+a*time);
             }
         }
-        newPosition.setCoordinate(cx+bx*time, cy+by*time, zpos);
     }
 
     @Override
@@ -603,6 +762,10 @@ public class BouncePath extends Path {
         return numroots;
     }
 
+    // Times of the bounces, only valid after calcPath()
+    public int getNumberOfBounces()         { return numbounces; }
+    public double getBounceTime(int i)      { return start_time + endtime[i]; }
+
     // The returned quantity isn't actually used for volume, so just treat it as yes/no
     public double getBounceVolume(double time1, double time2) {
         if ((time2 < start_time) || (time1 > end_time))
@@ -93,6 +93,22 @@ public abstract class Path {
     // only valid after calcPath()
     public abstract void getCoordinate(double time, Coordinate newPosition);
 
+    // Evaluates the path at t[from] through t[to-1], which must be in
+    // increasing order, putting the results into x, y and z at the same
+    // indices. As with getCoordinate(), entries for times outside the path
+    // are left unchanged. Only valid after calcPath().
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        Coordinate loc = new Coordinate();
+        for (int k = from; k < to; k++) {
+            loc.setCoordinate(x[k], y[k], z[k]);
+            getCoordinate(t[k], loc);
+            x[k] = loc.x;
+            y[k] = loc.y;
+            z[k] = loc.z;
+        }
+    }
+
     // for hand layout, only valid after calcPath()
     protected abstract Coordinate getMax2(double begin, double end);
     protected abstract Coordinate getMin2(double begin, double end);
@@ -86,6 +86,24 @@ public class TossPath extends Path {
         newPosition.setCoordinate(cx+bx*time, cy+by*time, cz+time*(bz+az*time));
     }
 
+    @Override
+    public void getCoordinates(double[] t, int from, int to, double[] x,
+                               double[] y, double[] z) {
+        int k = from;
+        while (k < to && t[k] < start_time)
+            k++;
+        int end = k;
+        while (end < to && t[end] <= end_time)
+            end++;
+
+        for (; k < end; k++) {
+            double time = t[k] - start_time;
+            x[k] = cx+bx*time;
+            y[k] = cy+by*time;
+            z[k] = cz+time*(bz+az*time);
+        }
+    }
+
     @Override
     protected Coordinate getMax2(double begin, double end) {
         Coordinate result = null;
@@ -5,8 +5,11 @@
 package jugglinglab.renderer;
 
 import jugglinglab.util.*;
+import jugglinglab.jml.BakedFrames;
 import jugglinglab.jml.JMLPattern;
 import jugglinglab.jml.HandLink;
+import jugglinglab.jml.JugglerTransform;
+import jugglinglab.jml.PatternSnapshot;
 
 
 // This class calculates the coordinates of the juggler elbows, shoulders, etc.
@@ -47,125 +50,138 @@ public class Juggler {
 
 
     public static void findJugglerCoordinates(JMLPattern pat, double time, JLVector[][] result) throws JuggleExceptionInternal {
-        for (int juggler = 1; juggler <= pat.getNumberOfJugglers(); juggler++) {
-            JLVector lefthand, righthand;
-            JLVector leftshoulder, rightshoulder;
-            JLVector leftelbow, rightelbow;
-            JLVector leftwaist, rightwaist;
-            JLVector leftheadbottom, leftheadtop;
-            JLVector rightheadbottom, rightheadtop;
-
-            Coordinate coord0 = new Coordinate();
-            Coordinate coord1 = new Coordinate();
-            Coordinate coord2 = new Coordinate();
-            pat.getHandCoordinate(juggler, HandLink.LEFT_HAND, time, coord0);
-            pat.getHandCoordinate(juggler, HandLink.RIGHT_HAND, time, coord1);
-            lefthand = new JLVector(coord0.x,
-                        coord0.z + lower_hand_height, coord0.y);
-            righthand = new JLVector(coord1.x,
-                        coord1.z + lower_hand_height, coord1.y);
-
-            pat.getJugglerPosition(juggler, time, coord2);
-            double angle = Math.toRadians(pat.getJugglerAngle(juggler, time));
-            double s = Math.sin(angle);
-            double c = Math.cos(angle);
-
-            leftshoulder = new JLVector(
+        PatternSnapshot snap = pat.getSnapshot();
+        BakedFrames bf = pat.getBakedFrames(snap);
+        findJugglerCoordinates(snap, time, bf, (bf == null ? -1 : bf.getFrame(time)), result,
+                               new Coordinate(), new JugglerTransform());
+    }
+
+    // Version for the renderer, which supplies working space so that nothing
+    // is allocated. Everything is found from one snapshot of the pattern;
+    // `frame` is the frame number in `bf` (baked from that snapshot) for
+    // `time`, or -1 if none. Vectors already in `result` are reused; the elbow
+    // entries are null when the arm is straight. If `result` has room for 14
+    // entries, the last two keep the elbow vectors while the arms are straight
+    // so that they're reused too.
+    public static void findJugglerCoordinates(PatternSnapshot snap, double time, BakedFrames bf,
+                        int frame, JLVector[][] result, Coordinate temp, JugglerTransform jt)
+                        throws JuggleExceptionInternal {
+        for (int juggler = 1; juggler <= snap.getNumberOfJugglers(); juggler++) {
+            JLVector[] r = result[juggler - 1];
+
+            if (frame >= 0)
+                bf.getHandCoordinate(frame, juggler, HandLink.LEFT_HAND, temp);
+            else
+                snap.getHandCoordinate(juggler, HandLink.LEFT_HAND, time, temp);
+            JLVector lefthand = r[0] = set(r[0], temp.x,
+                        temp.z + lower_hand_height, temp.y);
+
+            if (frame >= 0)
+                bf.getHandCoordinate(frame, juggler, HandLink.RIGHT_HAND, temp);
+            else
+                snap.getHandCoordinate(juggler, HandLink.RIGHT_HAND, time, temp);
+            JLVector righthand = r[1] = set(r[1], temp.x,
+                        temp.z + lower_hand_height, temp.y);
+
+            if (frame >= 0)
+                bf.getJugglerTransform(frame, juggler, jt);
+            else
+                snap.getJugglerTransform(juggler, time, jt);
+            Coordinate coord2 = jt.origin;
+            double s = jt.sin;
+            double c = jt.cos;
+
+            JLVector leftshoulder = r[2] = set(r[2],
                 coord2.x - shoulder_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h,
                 coord2.y - shoulder_hw * s + shoulder_y * c);
-            rightshoulder = new JLVector(
+            JLVector rightshoulder = r[3] = set(r[3],
                 coord2.x + shoulder_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h,
                 coord2.y + shoulder_hw * s + shoulder_y * c);
-            leftwaist = new JLVector(
+            r[6] = set(r[6],                // left waist
                 coord2.x - waist_hw * c - shoulder_y * s,
                 coord2.z + waist_h,
                 coord2.y - waist_hw * s + shoulder_y * c);
-            rightwaist = new JLVector(
+            r[7] = set(r[7],                // right waist
                 coord2.x + waist_hw * c - shoulder_y * s,
                 coord2.z + waist_h,
                 coord2.y + waist_hw * s + shoulder_y * c);
-            leftheadbottom = new JLVector(
+            r[8] = set(r[8],                // left head bottom
                 coord2.x - head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h,
                 coord2.y - head_hw * s + shoulder_y * c);
-            leftheadtop = new JLVector(
+            r[9] = set(r[9],                // left head top
                 coord2.x - head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h + head_h,
                 coord2.y - head_hw * s + shoulder_y * c);
-            rightheadbottom = new JLVector(
+            r[10] = set(r[10],              // right head bottom
                 coord2.x + head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h,
                 coord2.y + head_hw * s + shoulder_y * c);
-            rightheadtop = new JLVector(
+            r[11] = set(r[11],              // right head top
                 coord2.x + head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h + head_h,
                 coord2.y + head_hw * s + shoulder_y * c);
 
-            double L = lower_total;
-            double U = upper_total;
-            JLVector deltaL = JLVector.sub(lefthand, leftshoulder);
-            double D = deltaL.length();
-            if (D <= (L+U)) {
-                // Calculate the coordinates of the elbows
-                double Lr = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
-                if (Double.isNaN(Lr))
-                    throw new JuggleExceptionInternal("NaN in renderer 1");
-
-                double factor = Math.sqrt(U*U-Lr*Lr)/D;
-                if (Double.isNaN(factor))
-                    throw new JuggleExceptionInternal("NaN in renderer 2");
-                JLVector Lxsc = JLVector.scale(factor, deltaL);
-                double Lalpha = Math.asin(deltaL.y / D);
-                if (Double.isNaN(Lalpha))
-                    throw new JuggleExceptionInternal("NaN in renderer 3");
-                factor = 1.0 + Lr*Math.tan(Lalpha)/(factor*D);
-                leftelbow = new JLVector(
-                        leftshoulder.x + Lxsc.x * factor,
-                        leftshoulder.y + Lxsc.y - Lr*Math.cos(Lalpha),
-                        leftshoulder.z + Lxsc.z * factor);
-            } else {
-                leftelbow = null;
-            }
-
-            JLVector deltaR = JLVector.sub(righthand, rightshoulder);
-            D = deltaR.length();
-            if (D <= (L+U)) {
-                // Calculate the coordinates of the elbows
-                double Rr = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
-                if (Double.isNaN(Rr))
-                    throw new JuggleExceptionInternal("NaN in renderer 4");
-
-                double factor = Math.sqrt(U*U-Rr*Rr)/D;
-                if (Double.isNaN(factor))
-                    throw new JuggleExceptionInternal("NaN in renderer 5");
-                JLVector Rxsc = JLVector.scale(factor, deltaR);
-                double Ralpha = Math.asin(deltaR.y / D);
-                if (Double.isNaN(Ralpha))
-                    throw new JuggleExceptionInternal("NaN in renderer 6");
-                factor = 1.0 + Rr*Math.tan(Ralpha)/(factor*D);
-                rightelbow = new JLVector(
-                        rightshoulder.x + Rxsc.x * factor,
-                        rightshoulder.y + Rxsc.y - Rr*Math.cos(Ralpha),
-                        rightshoulder.z + Rxsc.z * factor);
-            } else {
-                rightelbow = null;
-            }
-
-            result[juggler-1][0] = lefthand;
-            result[juggler-1][1] = righthand;
-            result[juggler-1][2] = leftshoulder;
-            result[juggler-1][3] = rightshoulder;
-            result[juggler-1][4] = leftelbow;
-            result[juggler-1][5] = rightelbow;
-            result[juggler-1][6] = leftwaist;
-            result[juggler-1][7] = rightwaist;
-            result[juggler-1][8] = leftheadbottom;
-            result[juggler-1][9] = leftheadtop;
-            result[juggler-1][10] = rightheadbottom;
-            result[juggler-1][11] = rightheadtop;
+            updateElbow(r, 4, leftshoulder, lefthand, 1);
+            updateElbow(r, 5, rightshoulder, righthand, 4);
         }
     }
 
+    // Set r[i] to the elbow for the given arm, keeping the vector in r[i+8]
+    // (if there's room) while the arm is straight.
+    protected static void updateElbow(JLVector[] r, int i, JLVector shoulder, JLVector hand,
+                        int nan_code) throws JuggleExceptionInternal {
+        boolean spare = (r.length > i + 8);
+        JLVector elbow = (r[i] == null && spare ? r[i + 8] : r[i]);
+        r[i] = findElbow(elbow, shoulder, hand, nan_code);
+        if (spare && r[i] == null && elbow != null)
+            r[i + 8] = elbow;
+    }
+
+    // Calculate the coordinates of an elbow, reusing `elbow` if it isn't
+    // null. Returns null if the arm is fully extended. `nan_code` numbers the
+    // error messages.
+    protected static JLVector findElbow(JLVector elbow, JLVector shoulder, JLVector hand,
+                        int nan_code) throws JuggleExceptionInternal {
+        double L = lower_total;
+        double U = upper_total;
+        double dx = hand.x - shoulder.x;
+        double dy = hand.y - shoulder.y;
+        double dz = hand.z - shoulder.z;
+        double D = Math.sqrt(dx*dx+dy*dy+dz*dz);
+        if (!(D <= (L+U)))
+            return null;
+
+        double r = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
+        if (Double.isNaN(r))
+            throw new JuggleExceptionInternal("NaN in renderer " + nan_code);
+
+        double factor = Math.sqrt(U*U-r*r)/D;
+        if (Double.isNaN(factor))
+            throw new JuggleExceptionInternal("NaN in renderer " + (nan_code + 1));
+        double xscx = factor * dx;
+        double xscy = factor * dy;
+        double xscz = factor * dz;
+        double alpha = Math.asin(dy / D);
+        if (Double.isNaN(alpha))
+            throw new JuggleExceptionInternal("NaN in renderer " + (nan_code + 2));
+        factor = 1.0 + r*Math.tan(alpha)/(factor*D);
+
+        return set(elbow,
+                   shoulder.x + xscx * factor,
+                   shoulder.y + xscy - r*Math.cos(alpha),
+                   shoulder.z + xscz * factor);
+    }
+
+    protected static JLVector set(JLVector v, double x, double y, double z) {
+        if (v == null)
+            return new JLVector(x, y, z);
+        v.x = x;
+        v.y = y;
+        v.z = z;
+        return v;
+    }
+
 }
@@ -9,6 +9,7 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 
 import jugglinglab.jml.JMLPattern;
+import jugglinglab.jml.PatternSnapshot;
 import jugglinglab.util.Coordinate;
 import jugglinglab.util.JuggleExceptionInternal;
 
@@ -49,5 +50,10 @@ public abstract class Renderer {
     public abstract void drawFrame(double time, int[] pnum, int[] hideJugglers, Graphics g)
                 throws JuggleExceptionInternal;
 
+    // Version that draws from a given snapshot of the pattern, so that every
+    // part of the frame comes from the same layout
+    public abstract void drawFrame(double time, PatternSnapshot snap, int[] pnum,
+                int[] hideJugglers, Graphics g) throws JuggleExceptionInternal;
+
     public abstract Color getBackground();
 }
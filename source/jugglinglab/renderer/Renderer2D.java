@@ -11,7 +11,10 @@ import java.awt.Image;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 
+import jugglinglab.jml.BakedFrames;
 import jugglinglab.jml.JMLPattern;
+import jugglinglab.jml.JugglerTransform;
+import jugglinglab.jml.PatternSnapshot;
 import jugglinglab.util.Coordinate;
 import jugglinglab.util.JLFunc;
 import jugglinglab.util.JuggleExceptionInternal;
@@ -49,6 +52,8 @@ public class Renderer2D extends Renderer {
     protected double            propmin;    // for drawing floor
     protected Coordinate        tempc;
     protected JLVector          tempv1, tempv2;
+    protected JugglerTransform  tempjt;
+    protected int[]             bodyx, bodyy;
 
     public Renderer2D() {
         this.background = Color.white;
@@ -65,6 +70,9 @@ public class Renderer2D extends Renderer {
         this.tempc = new Coordinate();
         this.tempv1 = new JLVector();
         this.tempv2 = new JLVector();
+        this.tempjt = new JugglerTransform();
+        this.bodyx = new int[4];
+        this.bodyy = new int[4];
     }
 
     @Override
@@ -75,7 +83,7 @@ public class Renderer2D extends Renderer {
         for (int i = 0; i < maxobjects; i++)
             obj[i] = new DrawObject2D(maxobjects);
         this.obj2 = new DrawObject2D[maxobjects];
-        this.jugglervec = new JLVector[pat.getNumberOfJugglers()][12];
+        this.jugglervec = new JLVector[pat.getNumberOfJugglers()][14];
     }
 
     @Override
@@ -151,7 +159,13 @@ public class Renderer2D extends Renderer {
     @Override
     public void drawFrame(double time, int[] pnum, int[] hideJugglers, Graphics g)
                             throws JuggleExceptionInternal {
-        int numobjects = 5*pat.getNumberOfJugglers() + pat.getNumberOfPaths() + 18;
+        drawFrame(time, pat.getSnapshot(), pnum, hideJugglers, g);
+    }
+
+    @Override
+    public void drawFrame(double time, PatternSnapshot snap, int[] pnum, int[] hideJugglers,
+                            Graphics g) throws JuggleExceptionInternal {
+        int numobjects = 5*snap.getNumberOfJugglers() + snap.getNumberOfPaths() + 18;
 
         // first reset the objects in the object pool
         for (int i = 0; i < numobjects; i++)
@@ -160,12 +174,19 @@ public class Renderer2D extends Renderer {
         // first create a list of objects in the display
         int index = 0;
 
+        // use the pattern's baked positions if this is one of its frames
+        BakedFrames bf = pat.getBakedFrames(snap);
+        int frame = (bf == null ? -1 : bf.getFrame(time));
+
         // props
         double propmin = 0.0;
-        for (int i = 1; i <= pat.getNumberOfPaths(); i++) {
+        for (int i = 1; i <= snap.getNumberOfPaths(); i++) {
             obj[index].type = DrawObject2D.TYPE_PROP;
             obj[index].number = i;
-            pat.getPathCoordinate(i, time, tempc);
+            if (frame >= 0)
+                bf.getPathCoordinate(frame, i, tempc);
+            else
+                snap.getPathCoordinate(i, time, tempc);
             if (!tempc.isValid())
                 tempc.setCoordinate(0.0, 0.0, 0.0);
             getXYZ(Renderer.toVector(tempc, tempv1), obj[index].coord[0]);
@@ -228,9 +249,9 @@ public class Renderer2D extends Renderer {
         }
 
         // jugglers
-        Juggler.findJugglerCoordinates(pat, time, jugglervec);
+        Juggler.findJugglerCoordinates(snap, time, bf, frame, jugglervec, tempc, tempjt);
 
-        for (int i = 1; i <= pat.getNumberOfJugglers(); i++) {
+        for (int i = 1; i <= snap.getNumberOfJugglers(); i++) {
             if (hideJugglers != null) {
                 boolean hide = false;
                 for (int j = 0; j < hideJugglers.length; j++)
@@ -410,8 +431,6 @@ public class Renderer2D extends Renderer {
                     */
                     break;
                 case DrawObject2D.TYPE_BODY:
-                    int[] bodyx = new int[4];
-                    int[] bodyy = new int[4];
                     for (int j = 0; j < 4; j++) {
                         bodyx[j] = (int)(0.5f + ob.coord[j].x);
                         bodyy[j] = (int)(0.5f + ob.coord[j].y);